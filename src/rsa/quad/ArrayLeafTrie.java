@@ -0,0 +1,290 @@
+package rsa.quad;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.lang.String;
+
+/**
+ * <b>Class ArrayLeafTrie</b>
+ * <br>
+ * This class represents a Trie that represents a quadrant of its parent range, like LeafTrie.<br>
+ * It stores the coordinates of its points in parallel arrays of doubles, next to an array with the points themselves,
+ * so that scanning the leaf is a loop over primitives that doesn't call the points' methods.<br>
+ * The coordinates are recorded when a point is inserted, and refreshed when the point is moved.<br>
+ * Corresponds to the leaf element in the Composite Design Pattern.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.LeafTrie LeafTrie
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class ArrayLeafTrie<T extends HasPoint> extends Trie<T> {
+
+	private final static int INITIAL_LENGTH = 16;
+
+	private double[] xs;
+	private double[] ys;
+	private Object[] points;
+	private int size;
+
+	ArrayLeafTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, Settings settings, int depth) {
+		super(topLeftX,topLeftY,bottomRightX,bottomRightY,settings,depth);
+		int length = Math.min(settings.capacity, INITIAL_LENGTH);
+		this.xs = new double[length];
+		this.ys = new double[length];
+		this.points = new Object[length];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns this leaf if it may be changed in place, or a copy of it if it is shared with a snapshot.
+	 * @return A leaf of the current epoch
+	 */
+	private ArrayLeafTrie<T> writable() {
+		if (isWritable())
+			return this;
+		ArrayLeafTrie<T> leaf = new ArrayLeafTrie<T>(topLeftX, topLeftY, bottomRightX, bottomRightY, settings, depth);
+		leaf.xs = xs.clone();
+		leaf.ys = ys.clone();
+		leaf.points = points.clone();
+		leaf.size = size;
+		return leaf;
+	}
+
+	/**
+	 * Returns the point at the given position of the arrays.
+	 * @param index (int)
+	 * @return The point (T extends HasPoint)
+	 */
+	@SuppressWarnings("unchecked")
+	private T pointAt(int index) {
+		return (T) points[index];
+	}
+
+	/**
+	 * Visits all the points inside this leaf, until the visitor returns false.
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitAll(Predicate<? super T> visitor) {
+		for (int i = 0; i < size; i++) {
+			if (!visitor.test(pointAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Visits points inside this leaf that are inside the range of the specified circle, until the visitor returns false.<br>
+	 * The squared distances are computed from the arrays of coordinates and compared with the squared radius.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		double squaredRadius = radius * radius;
+		for (int i = 0; i < size; i++) {
+			double dx = xs[i] - x;
+			double dy = ys[i] - y;
+			if (dx*dx + dy*dy <= squaredRadius) {
+				if (!visitor.test(pointAt(i)))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Visits the points inside this leaf that are inside the specified rectangle, boundaries included, until the visitor returns false.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		for (int i = 0; i < size; i++) {
+			if (xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) {
+				if (!visitor.test(pointAt(i)))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Offers the points inside this leaf to the given queue of a nearest neighbour search.
+	 * @param queue (NearestQueue of T extends HasPoint)
+	 */
+	void expandNearest(NearestQueue<T> queue) {
+		for (int i = 0; i < size; i++) {
+			queue.offer(pointAt(i));
+		}
+		return;
+	}
+
+	/**
+	 * Removes the given point from the leaf, moving the last point to its place.<br>
+	 * Other points sharing the same coordinates are kept.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 * @return This leaf, or a copy of it if it was shared with a snapshot.
+	 */
+	Trie<T> delete(T point, double x, double y) {
+		int index = indexOf(point);
+		if (index < 0)
+			return this;
+		ArrayLeafTrie<T> leaf = writable();
+		leaf.size--;
+		leaf.xs[index] = leaf.xs[leaf.size];
+		leaf.ys[index] = leaf.ys[leaf.size];
+		leaf.points[index] = leaf.points[leaf.size];
+		leaf.points[leaf.size] = null;
+		return leaf;
+	}
+
+	int countTries() {
+		return 1;
+	}
+
+	int deepest() {
+		return depth;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the position of the given point in the arrays, comparing by identity or equality.
+	 * @param point (T extends HasPoint)
+	 * @return The position of the point, or -1 if it isn't in the leaf.
+	 */
+	private int indexOf(T point) {
+		for (int i = 0; i < size; i++) {
+			if (points[i] == point || points[i].equals(point))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of a point with the given coordinates in the arrays.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return The position of the first point found at (x,y), or -1 if there is none.
+	 */
+	private int indexAt(double x, double y) {
+		for (int i = 0; i < size; i++) {
+			if (xs[i] == x && ys[i] == y)
+				return i;
+		}
+		return -1;
+	}
+
+	T find(T point) {
+		int index = indexAt(point.getX(),point.getY());
+		return index < 0 ? null : pointAt(index);
+	}
+
+	/**
+	 * Inserts a point inside the leaf, growing the arrays if needed.<br>
+	 * If the leaf has reached its capacity, it will convert itself to a NodeTrie and will populate it with its points.<br>
+	 * A leaf at the maximum depth, or holding only points with the same coordinates as the new one,
+	 * can't separate its points by splitting, so it holds them beyond its capacity instead (overflow bucket).<br>
+	 * A point already in the leaf, the same or an equal one, is kept once and the leaf is left unchanged.<br>
+	 * If the point isn't in the trie's range, it will throw a PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 * @return Trie of T extends HasPoint
+	 */
+	Trie<T> insert(T point) {
+		if (!this.checkRange(point)) {
+			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+		}
+		if (indexOf(point) >= 0)
+			return this;
+		if (size >= settings.capacity && depth < settings.maxDepth && !allAt(point.getX(),point.getY())) {
+			NodeTrie<T> newNode = new NodeTrie<T>(this.topLeftX, this.topLeftY, this.bottomRightX, this.bottomRightY, this.settings, this.depth);
+			for (int i = 0; i < size; i++) {
+				newNode.insert(pointAt(i));
+			}
+			newNode.insert(point);
+			return newNode;
+		}
+		ArrayLeafTrie<T> leaf = writable();
+		if (leaf.size == leaf.points.length) {
+			int length = Math.max(1, 2 * leaf.size);
+			leaf.xs = Arrays.copyOf(leaf.xs, length);
+			leaf.ys = Arrays.copyOf(leaf.ys, length);
+			leaf.points = Arrays.copyOf(leaf.points, length);
+		}
+		leaf.xs[leaf.size] = point.getX();
+		leaf.ys[leaf.size] = point.getY();
+		leaf.points[leaf.size] = point;
+		leaf.size++;
+		return leaf;
+	}
+
+	/**
+	 * Checks if all the points inside the leaf have the given coordinates.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return true if all points are at (x,y), or if the leaf is empty.
+	 */
+	private boolean allAt(double x, double y) {
+		for (int i = 0; i < size; i++) {
+			if (xs[i] != x || ys[i] != y)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a point with the same coordinates is inside the leaf, if so, replaces it with the new one.
+	 * Otherwise the point is inserted, splitting the leaf if it is full.
+	 * If the point isn't in the trie's range, it will throw a PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 * @return Trie of T extends HasPoint
+	 */
+	Trie<T> insertReplace(T point) {
+		if (!checkRange(point)) {
+			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+		}
+		int index = indexAt(point.getX(),point.getY());
+		if (index < 0)
+			return insert(point);
+		ArrayLeafTrie<T> leaf = writable();
+		leaf.points[index] = point;
+		return leaf;
+	}
+
+	/**
+	 * Updates a point whose coordinates changed while staying inside this leaf,
+	 * recording its current coordinates in the arrays.
+	 * If it wasn't in the leaf, it is simply inserted.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 * @return Trie of T extends HasPoint
+	 */
+	Trie<T> move(T point, double oldX, double oldY) {
+		if (!checkRange(point)) {
+			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+		}
+		int index = indexOf(point);
+		if (index < 0)
+			return insert(point);
+		ArrayLeafTrie<T> leaf = writable();
+		leaf.xs[index] = point.getX();
+		leaf.ys[index] = point.getY();
+		return leaf;
+	}
+
+	@Override
+	public String toString() {
+		return "ArrayLeafTrie with " + size + "points";
+	}
+
+}
@@ -0,0 +1,70 @@
+package rsa.quad;
+
+/**
+ * <b>Class Batch</b>
+ * <br>
+ * This class holds a batch of points processed in a single walk of a quadtree, along with their coordinates in parallel arrays.<br>
+ * Nodes reorder ranges of the batch in place, partitioning them by quadrant, and pass each part to the child Trie of its quadrant.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+class Batch<T extends HasPoint> {
+
+	final T[] points;
+	final double[] xs;
+	final double[] ys;
+
+	/**
+	 * @param points (array of T extends HasPoint)
+	 * @param xs (double[])
+	 * @param ys (double[])
+	 */
+	Batch(T[] points, double[] xs, double[] ys) {
+		this.points = points;
+		this.xs = xs;
+		this.ys = ys;
+	}
+
+	/**
+	 * Partitions a range of the batch in place, placing first the points whose key is up to the given middle.
+	 * @param keys either the x or the y coordinates of the batch (double[])
+	 * @param start first position, inclusive (int)
+	 * @param end last position, exclusive (int)
+	 * @param middle (double)
+	 * @return The position of the first point whose key is above the middle (int)
+	 */
+	int partition(double[] keys, int start, int end, double middle) {
+		int low = start;
+		int high = end - 1;
+		while (low <= high) {
+			if (keys[low] <= middle)
+				low++;
+			else {
+				swap(low, high);
+				high--;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Swaps two points of the batch along with their coordinates.
+	 * @param i (int)
+	 * @param j (int)
+	 */
+	void swap(int i, int j) {
+		T point = points[i];
+		points[i] = points[j];
+		points[j] = point;
+		swap(xs, i, j);
+		swap(ys, i, j);
+	}
+
+	private static void swap(double[] values, int i, int j) {
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+}
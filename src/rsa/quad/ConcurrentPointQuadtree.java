@@ -0,0 +1,561 @@
+package rsa.quad;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * <b>Class ConcurrentPointQuadtree</b>
+ * <br>
+ * This class represents a thread-safe variant of PointQuadtree, for position updates and queries from several threads.<br>
+ * Nodes keep their children in atomic arrays and leaves keep their points in arrays that are never modified,
+ * only replaced by updated copies (copy-on-write), hence readers never block and always scan a consistent leaf.<br>
+ * Each point is stored with the coordinates it had when it was inserted or moved, so that it is found
+ * where it is indexed even while another thread is changing its coordinates.<br>
+ * Writers lock only the leaves they change. A leaf that splits is retired and replaced in its parent by a new node;
+ * writers that find a retired leaf after acquiring its lock start over from the root.<br>
+ * Unlike PointQuadtree, nodes don't collapse back into leaves after deletes.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.PointQuadtree PointQuadtree
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class ConcurrentPointQuadtree<T extends HasPoint> implements SpatialIndex<T> {
+
+	/**
+	 * <b>Class Cell</b>
+	 * <br>Common range of nodes and leaves of the concurrent quadtree, fixed on creation.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static abstract class Cell {
+		final double topLeftX;
+		final double topLeftY;
+		final double bottomRightX;
+		final double bottomRightY;
+		final int depth;
+
+		Cell(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int depth) {
+			this.topLeftX = topLeftX;
+			this.topLeftY = topLeftY;
+			this.bottomRightX = bottomRightX;
+			this.bottomRightY = bottomRightY;
+			this.depth = depth;
+		}
+
+		/**
+		 * Checks if the circle of given center and radius intersects the cell's range.
+		 * @param x (double)
+		 * @param y (double)
+		 * @param radius (double)
+		 * @return true if the circle intersects the range.
+		 */
+		boolean intersects(double x, double y, double radius) {
+			double dx = x - Math.max(topLeftX, Math.min(x, bottomRightX));
+			double dy = y - Math.max(bottomRightY, Math.min(y, topLeftY));
+			return dx*dx + dy*dy <= radius*radius;
+		}
+
+		/**
+		 * Checks if the given rectangle intersects the cell's range.
+		 * @param minX (double)
+		 * @param minY (double)
+		 * @param maxX (double)
+		 * @param maxY (double)
+		 * @return true if the rectangle intersects the range.
+		 */
+		boolean intersects(double minX, double minY, double maxX, double maxY) {
+			return minX <= bottomRightX && maxX >= topLeftX && minY <= topLeftY && maxY >= bottomRightY;
+		}
+	}
+
+	/**
+	 * <b>Class Node</b>
+	 * <br>Cell with four children, indexed by the ordinal of their quadrant, that may be replaced concurrently.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static class Node extends Cell {
+		final double middleX;
+		final double middleY;
+		final AtomicReferenceArray<Cell> children;
+
+		Node(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int depth) {
+			super(topLeftX, topLeftY, bottomRightX, bottomRightY, depth);
+			this.middleX = (bottomRightX + topLeftX)/2;
+			this.middleY = (topLeftY + bottomRightY)/2;
+			this.children = new AtomicReferenceArray<Cell>(Trie.Quadrant.values().length);
+			children.set(Trie.Quadrant.NW.ordinal(), new Leaf(topLeftX, topLeftY, middleX, middleY, depth+1));
+			children.set(Trie.Quadrant.NE.ordinal(), new Leaf(middleX, topLeftY, bottomRightX, middleY, depth+1));
+			children.set(Trie.Quadrant.SW.ordinal(), new Leaf(topLeftX, middleY, middleX, bottomRightY, depth+1));
+			children.set(Trie.Quadrant.SE.ordinal(), new Leaf(middleX, middleY, bottomRightX, bottomRightY, depth+1));
+		}
+
+		/**
+		 * Returns the index of the child whose quadrant contains the given coordinates, as in NodeTrie.
+		 * @param x (double)
+		 * @param y (double)
+		 * @return The ordinal of the quadrant (int)
+		 */
+		int indexOf(double x, double y) {
+			if (x <= middleX)
+				return (y <= middleY ? Trie.Quadrant.SW : Trie.Quadrant.NW).ordinal();
+			else
+				return (y <= middleY ? Trie.Quadrant.SE : Trie.Quadrant.NE).ordinal();
+		}
+	}
+
+	/**
+	 * <b>Class Entry</b>
+	 * <br>A point stored in a leaf, with the coordinates it had when it was stored.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static final class Entry {
+		final Object point;
+		final double x;
+		final double y;
+
+		Entry(Object point, double x, double y) {
+			this.point = point;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * <b>Class Leaf</b>
+	 * <br>Cell holding points in an array that is replaced, never modified, on updates.<br>
+	 * Updates are made while holding the leaf's lock; a retired leaf was replaced by a node and must not be updated.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static class Leaf extends Cell {
+		private static final Entry[] EMPTY = new Entry[0];
+
+		volatile Entry[] entries = EMPTY;
+		boolean retired = false;
+
+		Leaf(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int depth) {
+			super(topLeftX, topLeftY, bottomRightX, bottomRightY, depth);
+		}
+	}
+
+	private final double topLeftX;
+	private final double topLeftY;
+	private final double bottomRightX;
+	private final double bottomRightY;
+	private final int capacity;
+	private final int maxDepth;
+	private final Node root;
+
+	/**
+	 * Constructs a concurrent quadtree whose leaves hold the default capacity of points.
+	 * @see rsa.quad.Trie#setCapacity(int)
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 */
+	public ConcurrentPointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
+		this(topLeftX,topLeftY,bottomRightX,bottomRightY,Trie.getCapacity(),Trie.DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * Constructs a concurrent quadtree with the given leaf capacity and maximum depth, as in PointQuadtree.<br>
+	 * Since leaves are copied on every update, small capacities reduce the cost of writes.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param capacity (int)
+	 * @param maxDepth (int)
+	 */
+	public ConcurrentPointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int capacity, int maxDepth) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity of a quadtree must be positive!");
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("The maximum depth of a quadtree must be positive!");
+		this.topLeftX = topLeftX;
+		this.topLeftY = topLeftY;
+		this.bottomRightX = bottomRightX;
+		this.bottomRightY = bottomRightY;
+		this.capacity = capacity;
+		this.maxDepth = maxDepth;
+		this.root = new Node(topLeftX, topLeftY, bottomRightX, bottomRightY, 0);
+	}
+
+	/**
+	 * Returns a point with the same coordinates as the given one, if there is any.
+	 * @param point (T extends HasPoint)
+	 * @return The point found or null.
+	 */
+	public T find(T point) {
+		for (Entry entry : leafAt(point.getX(), point.getY()).entries) {
+			if (entry.x == point.getX() && entry.y == point.getY())
+				return cast(entry.point);
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts a point, locking only the leaf where it is stored.<br>
+	 * Throws PointOutOfBoundException if the point's range doesn't match with the tree's.
+	 * @param point (T extends HasPoint)
+	 */
+	public void insert(T point) throws PointOutOfBoundException {
+		double x = point.getX();
+		double y = point.getY();
+		checkRange(x,y);
+		add(point, x, y, false);
+	}
+
+	/**
+	 * Deletes the given point, locking only the leaf where it is stored.
+	 * @param point (T extends HasPoint)
+	 */
+	public void delete(T point) {
+		remove(point, point.getX(), point.getY(), false, 0, 0);
+	}
+
+	/**
+	 * Reindexes a point whose coordinates changed from (oldX,oldY) to its current ones.<br>
+	 * The point is added to the leaf of its current position before it is removed from the leaf of the old one,
+	 * so concurrent readers find it in at least one of them. If both positions are in the same leaf,
+	 * only the coordinates stored with the point are updated.<br>
+	 * The current coordinates are read once, so both steps agree on them even if the point changes meanwhile.<br>
+	 * Throws PointOutOfBoundException if the point's current position doesn't match with the tree's range.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 */
+	public void move(T point, double oldX, double oldY) throws PointOutOfBoundException {
+		double x = point.getX();
+		double y = point.getY();
+		checkRange(x,y);
+		add(point, x, y, true);
+		remove(point, oldX, oldY, true, x, y);
+	}
+
+	public Set<T> findNear(double x, double y, double radius) {
+		Set<T> set = new HashSet<T>();
+		visitNear(root, x, y, radius, all(set::add));
+		return set;
+	}
+
+	/**
+	 * Streams the points near the given circle to the given visitor, without blocking.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public void forEachNear(double x, double y, double radius, Consumer<? super T> visitor) {
+		visitNear(root, x, y, radius, all(visitor));
+	}
+
+	/**
+	 * Visits the points near the given circle until the visitor returns false, without blocking.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		return visitNear(root, x, y, radius, visitor);
+	}
+
+	/**
+	 * Returns the points inside the given rectangle, boundaries included.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @return Set of points inside the rectangle.
+	 */
+	public Set<T> findInRect(double minX, double minY, double maxX, double maxY) {
+		Set<T> set = new HashSet<T>();
+		visitInRect(root, minX, minY, maxX, maxY, all(set::add));
+		return set;
+	}
+
+	/**
+	 * Streams the points inside the given rectangle, boundaries included, to the given visitor, without blocking.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public void forEachInRect(double minX, double minY, double maxX, double maxY, Consumer<? super T> visitor) {
+		visitInRect(root, minX, minY, maxX, maxY, all(visitor));
+	}
+
+	public Set<T> getAll() {
+		Set<T> set = new HashSet<T>();
+		forEach(set::add);
+		return set;
+	}
+
+	/**
+	 * Streams all the points in the tree to the given visitor, without blocking.
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public void forEach(Consumer<? super T> visitor) {
+		visitInRect(root, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, all(visitor));
+	}
+
+	/**
+	 * Checks if the given coordinates are inside the tree's 2D range.<br>
+	 * Throws PointOutOfBoundException if they aren't.
+	 * @param x (double)
+	 * @param y (double)
+	 */
+	private void checkRange(double x, double y) throws PointOutOfBoundException {
+		if (!(x <= bottomRightX && x >= topLeftX && y <= topLeftY && y >= bottomRightY))
+			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+	}
+
+	/**
+	 * Returns the leaf currently containing the given coordinates.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return The leaf, that may be retired by the time it is used.
+	 */
+	private Leaf leafAt(double x, double y) {
+		Cell cell = root;
+		while (cell instanceof Node) {
+			Node node = (Node) cell;
+			cell = node.children.get(node.indexOf(x,y));
+		}
+		return (Leaf) cell;
+	}
+
+	/**
+	 * Adds a point to the leaf of the given coordinates, splitting it if it is full.<br>
+	 * The leaf is locked while it is updated, and the search starts over if the leaf was retired meanwhile.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 * @param unlessPresent if true and the leaf already holds the point, its coordinates are updated instead (boolean)
+	 */
+	private void add(T point, double x, double y, boolean unlessPresent) {
+		while (true) {
+			Node parent = root;
+			int index = parent.indexOf(x,y);
+			Cell cell = parent.children.get(index);
+			while (cell instanceof Node) {
+				parent = (Node) cell;
+				index = parent.indexOf(x,y);
+				cell = parent.children.get(index);
+			}
+			Leaf leaf = (Leaf) cell;
+			synchronized (leaf) {
+				if (leaf.retired)
+					continue;
+				Entry[] entries = leaf.entries;
+				Entry entry = new Entry(point, x, y);
+				int present = unlessPresent ? indexOf(entries, point) : -1;
+				if (present >= 0) {
+					Entry[] updated = entries.clone();
+					updated[present] = entry;
+					leaf.entries = updated;
+				}
+				else if (isFull(entries, leaf.depth, x, y)) {
+					Node node = split(leaf, entries, entry);
+					leaf.retired = true;
+					parent.children.set(index, node);
+				}
+				else
+					leaf.entries = append(entries, entry);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes a point from the leaf of the given coordinates.<br>
+	 * The leaf is locked while it is updated, and the search starts over if the leaf was retired meanwhile.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 * @param moved if true, the point was just added at (newX,newY), and it is kept if that is in the same leaf (boolean)
+	 * @param newX (double)
+	 * @param newY (double)
+	 */
+	private void remove(T point, double x, double y, boolean moved, double newX, double newY) {
+		while (true) {
+			Leaf leaf = leafAt(x,y);
+			synchronized (leaf) {
+				if (leaf.retired)
+					continue;
+				if (moved && leafAt(newX,newY) == leaf)
+					return;
+				Entry[] entries = leaf.entries;
+				int index = indexOf(entries, point);
+				if (index >= 0) {
+					Entry[] fewer = Arrays.copyOf(entries, entries.length - 1);
+					if (index < fewer.length)
+						fewer[index] = entries[entries.length - 1];
+					leaf.entries = fewer;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a leaf at the given depth holding the given entries must split to add a point at (x,y).<br>
+	 * As in LeafTrie, leaves at the maximum depth or holding only points at (x,y) overflow instead.
+	 * @param entries (Entry[])
+	 * @param depth (int)
+	 * @param x (double)
+	 * @param y (double)
+	 * @return true if the leaf must split.
+	 */
+	private boolean isFull(Entry[] entries, int depth, double x, double y) {
+		if (entries.length < capacity || depth >= maxDepth)
+			return false;
+		for (Entry entry : entries) {
+			if (entry.x != x || entry.y != y)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a node with the range of the given leaf, holding its entries and the new one.<br>
+	 * Entries are placed by their stored coordinates, not by the current ones of their points.
+	 * The node isn't visible to other threads until it replaces the leaf, hence it is populated without locks.
+	 * @param leaf (Leaf)
+	 * @param entries (Entry[])
+	 * @param entry (Entry)
+	 * @return The new node
+	 */
+	private Node split(Leaf leaf, Entry[] entries, Entry entry) {
+		Node node = new Node(leaf.topLeftX, leaf.topLeftY, leaf.bottomRightX, leaf.bottomRightY, leaf.depth);
+		for (Entry other : entries)
+			place(node, other);
+		place(node, entry);
+		return node;
+	}
+
+	/**
+	 * Adds an entry below a node that isn't yet visible to other threads.
+	 * @param node (Node)
+	 * @param entry (Entry)
+	 */
+	private void place(Node node, Entry entry) {
+		double x = entry.x;
+		double y = entry.y;
+		Node parent = node;
+		int index = parent.indexOf(x,y);
+		Cell cell = parent.children.get(index);
+		while (cell instanceof Node) {
+			parent = (Node) cell;
+			index = parent.indexOf(x,y);
+			cell = parent.children.get(index);
+		}
+		Leaf leaf = (Leaf) cell;
+		if (isFull(leaf.entries, leaf.depth, x, y))
+			parent.children.set(index, split(leaf, leaf.entries, entry));
+		else
+			leaf.entries = append(leaf.entries, entry);
+	}
+
+	/**
+	 * Visits the points near the given circle below the given cell, until the visitor returns false.
+	 * @param cell (Cell)
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	private boolean visitNear(Cell cell, double x, double y, double radius, Predicate<? super T> visitor) {
+		if (cell instanceof Node) {
+			AtomicReferenceArray<Cell> children = ((Node) cell).children;
+			for (int i = 0; i < children.length(); i++) {
+				Cell child = children.get(i);
+				if (child.intersects(x,y,radius) && !visitNear(child,x,y,radius,visitor))
+					return false;
+			}
+			return true;
+		}
+		double squaredRadius = radius * radius;
+		for (Entry entry : ((Leaf) cell).entries) {
+			double dx = entry.x - x;
+			double dy = entry.y - y;
+			if (dx*dx + dy*dy <= squaredRadius && !visitor.test(cast(entry.point)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Visits the points inside the given rectangle below the given cell, until the visitor returns false.
+	 * @param cell (Cell)
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	private boolean visitInRect(Cell cell, double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		if (cell instanceof Node) {
+			AtomicReferenceArray<Cell> children = ((Node) cell).children;
+			for (int i = 0; i < children.length(); i++) {
+				Cell child = children.get(i);
+				if (child.intersects(minX,minY,maxX,maxY) && !visitInRect(child,minX,minY,maxX,maxY,visitor))
+					return false;
+			}
+			return true;
+		}
+		for (Entry entry : ((Leaf) cell).entries) {
+			if (entry.x >= minX && entry.x <= maxX && entry.y >= minY && entry.y <= maxY && !visitor.test(cast(entry.point)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the position of the entry of the given point in an array of entries, comparing by identity or equality.
+	 * @param entries (Entry[])
+	 * @param point (Object)
+	 * @return The position of the entry, or -1 if the point isn't in the array.
+	 */
+	private static int indexOf(Entry[] entries, Object point) {
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i].point == point || entries[i].point.equals(point))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a copy of an array of entries with one more entry at the end.
+	 * @param entries (Entry[])
+	 * @param entry (Entry)
+	 * @return The new array
+	 */
+	private static Entry[] append(Entry[] entries, Entry entry) {
+		Entry[] more = Arrays.copyOf(entries, entries.length + 1);
+		more[entries.length] = entry;
+		return more;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T cast(Object point) {
+		return (T) point;
+	}
+
+	/**
+	 * Adapts a consumer to a visitor that never stops the traversal.
+	 * @param consumer (Consumer of T extends HasPoint)
+	 * @return Predicate of T extends HasPoint, always true.
+	 */
+	private static <T> Predicate<T> all(Consumer<? super T> consumer) {
+		return point -> { consumer.accept(point); return true; };
+	}
+
+}
@@ -0,0 +1,364 @@
+package rsa.quad;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * <b>Class GridIndex</b>
+ * <br>
+ * This class represents a uniform grid over the index range: an alternative to PointQuadtree for queries of a fixed radius.<br>
+ * The range is divided in square cells of a given side, and each point is kept in the bucket of its cell,
+ * found by hashing the cell's column and row. Only cells holding points have a bucket.<br>
+ * With cells as large as the radius of the queries, a query touches at most 9 cells, whatever the number of points,
+ * hence queries and updates take constant time while the points are evenly spread.
+ * Larger radii touch more cells, and dense cells are scanned in full.<br>
+ * Buckets keep the coordinates of their points in arrays of doubles, as ArrayLeafTrie does.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.PointQuadtree PointQuadtree
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class GridIndex<T extends HasPoint> implements SpatialIndex<T> {
+
+	private final static int INITIAL_LENGTH = 4;
+
+	private final double topLeftX;
+	private final double topLeftY;
+	private final double bottomRightX;
+	private final double bottomRightY;
+	private final double cellSize;
+	private final Map<Long,Bucket> buckets;
+	private int size;
+
+	/**
+	 * <b>Class Bucket</b>
+	 * <br>Points of a cell, with their coordinates in parallel arrays.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static final class Bucket {
+		double[] xs = new double[INITIAL_LENGTH];
+		double[] ys = new double[INITIAL_LENGTH];
+		Object[] points = new Object[INITIAL_LENGTH];
+		int size;
+
+		void add(double x, double y, Object point) {
+			if (size == points.length) {
+				xs = Arrays.copyOf(xs, 2 * size);
+				ys = Arrays.copyOf(ys, 2 * size);
+				points = Arrays.copyOf(points, 2 * size);
+			}
+			xs[size] = x;
+			ys[size] = y;
+			points[size] = point;
+			size++;
+		}
+
+		/**
+		 * Removes the point at the given position, moving the last point to its place.
+		 * @param index (int)
+		 */
+		void removeAt(int index) {
+			size--;
+			xs[index] = xs[size];
+			ys[index] = ys[size];
+			points[index] = points[size];
+			points[size] = null;
+		}
+
+		/**
+		 * Returns the position of the given point, comparing by identity or equality.
+		 * @param point (Object)
+		 * @return The position of the point, or -1 if it isn't in the bucket.
+		 */
+		int indexOf(Object point) {
+			for (int i = 0; i < size; i++) {
+				if (points[i] == point || points[i].equals(point))
+					return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * <b>Interface CoordinateTest</b>
+	 * <br>Exact test of the coordinates of the points scanned by a query.
+	 */
+	private interface CoordinateTest {
+		boolean accepts(double x, double y);
+	}
+
+	/**
+	 * Constructs a grid with square cells of the given side, that should be the usual radius of the queries.<br>
+	 * Throws IllegalArgumentException if the side isn't positive.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param cellSize (double)
+	 */
+	public GridIndex(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, double cellSize) {
+		if (!(cellSize > 0))
+			throw new IllegalArgumentException("The size of the cells must be positive!");
+		this.topLeftX = topLeftX;
+		this.topLeftY = topLeftY;
+		this.bottomRightX = bottomRightX;
+		this.bottomRightY = bottomRightY;
+		this.cellSize = cellSize;
+		this.buckets = new HashMap<Long,Bucket>();
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the number of points in the index.
+	 * @return The size (int)
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of cells holding points.
+	 * @return The cell count (int)
+	 */
+	public int getCellCount() {
+		return buckets.size();
+	}
+
+	public T find(T point) {
+		double x = point.getX();
+		double y = point.getY();
+		Bucket bucket = buckets.get(keyOf(x,y));
+		if (bucket == null)
+			return null;
+		for (int i = 0; i < bucket.size; i++) {
+			if (bucket.xs[i] == x && bucket.ys[i] == y)
+				return pointAt(bucket, i);
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts the given point in the bucket of its cell, creating it if needed.<br>
+	 * If the point isn't in the index's range, it will throw a PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 */
+	public void insert(T point) throws PointOutOfBoundException {
+		double x = point.getX();
+		double y = point.getY();
+		if (!inRange(x,y))
+			throw new PointOutOfBoundException("This point doesn't belong to this index!");
+		buckets.computeIfAbsent(keyOf(x,y), key -> new Bucket()).add(x, y, point);
+		size++;
+	}
+
+	public void delete(T point) {
+		remove(point, point.getX(), point.getY());
+	}
+
+	/**
+	 * Reindexes a point whose coordinates changed from (oldX,oldY) to its current ones.<br>
+	 * If it stays in the same cell, only its coordinates are updated in place.
+	 * If it wasn't in the index, it is simply inserted.<br>
+	 * If the point isn't in the index's range, it will throw a PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 */
+	public void move(T point, double oldX, double oldY) throws PointOutOfBoundException {
+		double x = point.getX();
+		double y = point.getY();
+		if (!inRange(x,y))
+			throw new PointOutOfBoundException("This point doesn't belong to this index!");
+		long key = keyOf(x,y);
+		if (key == keyOf(oldX,oldY)) {
+			Bucket bucket = buckets.get(key);
+			int index = bucket == null ? -1 : bucket.indexOf(point);
+			if (index >= 0) {
+				bucket.xs[index] = x;
+				bucket.ys[index] = y;
+				return;
+			}
+		}
+		else
+			remove(point, oldX, oldY);
+		insert(point);
+	}
+
+	public Set<T> findNear(double x, double y, double radius) {
+		Set<T> set = new HashSet<T>();
+		visitNear(x, y, radius, set::add);
+		return set;
+	}
+
+	public void forEachNear(double x, double y, double radius, Consumer<? super T> visitor) {
+		visitNear(x, y, radius, point -> { visitor.accept(point); return true; });
+	}
+
+	/**
+	 * Visits the points inside the circle of given center and radius, boundary included, until the visitor returns false.<br>
+	 * The cells overlapping the bounding square of the circle are scanned,
+	 * testing the squared distances of the points against the squared radius.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		double squaredRadius = radius * radius;
+		return visitBox(x - radius, y - radius, x + radius, y + radius,
+				(px,py) -> (px-x)*(px-x) + (py-y)*(py-y) <= squaredRadius, visitor);
+	}
+
+	public Set<T> findInRect(double minX, double minY, double maxX, double maxY) {
+		Set<T> set = new HashSet<T>();
+		visitInRect(minX, minY, maxX, maxY, set::add);
+		return set;
+	}
+
+	public void forEachInRect(double minX, double minY, double maxX, double maxY, Consumer<? super T> visitor) {
+		visitInRect(minX, minY, maxX, maxY, point -> { visitor.accept(point); return true; });
+	}
+
+	/**
+	 * Visits the points inside the given rectangle, boundaries included, until the visitor returns false.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		return visitBox(minX, minY, maxX, maxY,
+				(px,py) -> px >= minX && px <= maxX && py >= minY && py <= maxY, visitor);
+	}
+
+	public Set<T> getAll() {
+		Set<T> set = new HashSet<T>();
+		forEach(set::add);
+		return set;
+	}
+
+	public void forEach(Consumer<? super T> visitor) {
+		for (Bucket bucket : buckets.values()) {
+			for (int i = 0; i < bucket.size; i++) {
+				visitor.accept(pointAt(bucket, i));
+			}
+		}
+	}
+
+	/**
+	 * Visits the points of the cells overlapping the given box that pass the given test, until the visitor returns false.<br>
+	 * If the box covers more cells than there are buckets, the buckets are scanned instead of the cells.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param test exact test of the coordinates (CoordinateTest)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	private boolean visitBox(double minX, double minY, double maxX, double maxY, CoordinateTest test, Predicate<? super T> visitor) {
+		minX = Math.max(minX, topLeftX);
+		minY = Math.max(minY, bottomRightY);
+		maxX = Math.min(maxX, bottomRightX);
+		maxY = Math.min(maxY, topLeftY);
+		if (minX > maxX || minY > maxY || size == 0)
+			return true;
+		int minColumn = column(minX);
+		int maxColumn = column(maxX);
+		int minRow = row(minY);
+		int maxRow = row(maxY);
+		if ((double) (maxColumn - minColumn + 1) * (maxRow - minRow + 1) > buckets.size()) {
+			for (Bucket bucket : buckets.values()) {
+				if (!visitBucket(bucket, test, visitor))
+					return false;
+			}
+			return true;
+		}
+		for (int column = minColumn; column <= maxColumn; column++) {
+			for (int row = minRow; row <= maxRow; row++) {
+				Bucket bucket = buckets.get(key(column,row));
+				if (bucket != null && !visitBucket(bucket, test, visitor))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean visitBucket(Bucket bucket, CoordinateTest test, Predicate<? super T> visitor) {
+		for (int i = 0; i < bucket.size; i++) {
+			if (test.accepts(bucket.xs[i], bucket.ys[i]) && !visitor.test(pointAt(bucket, i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the given point from the bucket of the cell of the given coordinates, and the bucket if it is left empty.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 */
+	private void remove(T point, double x, double y) {
+		long key = keyOf(x,y);
+		Bucket bucket = buckets.get(key);
+		if (bucket == null)
+			return;
+		int index = bucket.indexOf(point);
+		if (index < 0)
+			return;
+		bucket.removeAt(index);
+		size--;
+		if (bucket.size == 0)
+			buckets.remove(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private T pointAt(Bucket bucket, int index) {
+		return (T) bucket.points[index];
+	}
+
+	/**
+	 * Checks if the given coordinates are inside the index's range, boundaries included.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return true if they are inside the range.
+	 */
+	private boolean inRange(double x, double y) {
+		return x >= topLeftX && x <= bottomRightX && y >= bottomRightY && y <= topLeftY;
+	}
+
+	private int column(double x) {
+		return (int) Math.floor((x - topLeftX) / cellSize);
+	}
+
+	private int row(double y) {
+		return (int) Math.floor((y - bottomRightY) / cellSize);
+	}
+
+	private long keyOf(double x, double y) {
+		return key(column(x), row(y));
+	}
+
+	/**
+	 * Returns the key of a cell in the map of buckets, packing its column and row in a long.
+	 * @param column (int)
+	 * @param row (int)
+	 * @return The key (long)
+	 */
+	private static long key(int column, int row) {
+		return ((long) column << 32) | (row & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public String toString() {
+		return "GridIndex with " + size + " points in " + buckets.size() + " cells";
+	}
+
+}
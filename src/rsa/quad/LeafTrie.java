@@ -1,13 +1,18 @@
 package rsa.quad;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.lang.String;
 
 /**
  * <b>Class LeafTrie</b>
  * <br>
  * This class represents a Trie that represents a quadrant of its parent range.<br>
- * It stores the points on its range inside a set.<br>
+ * It stores the points on its range in a map keyed by the coordinates where they were indexed, 
+ * each key being the first entry of a chain of the points at those coordinates, 
+ * so that finding, deleting and replacing a point doesn't scan the leaf, whatever its capacity.<br>
  * Corresponds to the leaf element in the Composite Design Pattern.<br>
  * This class is parametrized by a type that extends the HasPoint interface.
  * @see rsa.quad.HasPoint HasPoint interface
@@ -15,57 +20,254 @@ import java.lang.String;
  */
 public class LeafTrie<T extends HasPoint> extends Trie<T>  {
 		
-	private Set<T> leafPoints;
+	private Map<Entry<T>, Entry<T>> leafPoints;
+	private int size;
+	
+	/**
+	 * <b>Class Entry</b>
+	 * <br>A point of a leaf with the coordinates where it was indexed, linked to the next point at the same coordinates.<br>
+	 * Entries are equal if their coordinates are, compared with == as the leaf compares coordinates,
+	 * so the first entry of each chain is its own key in the map.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static final class Entry<T> {
+		final double x;
+		final double y;
+		T point;
+		Entry<T> next;
+		
+		Entry(double x, double y, T point) {
+			this.x = x;
+			this.y = y;
+			this.point = point;
+		}
+		
+		@Override
+		public int hashCode() {
+			// 0.0 and -0.0 are equal, so they must hash alike
+			return 31 * Double.hashCode(x == 0 ? 0 : x) + Double.hashCode(y == 0 ? 0 : y);
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Entry))
+				return false;
+			Entry<?> other = (Entry<?>) object;
+			return x == other.x && y == other.y;
+		}
+	}
 	
 	LeafTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
-		super(topLeftX,topLeftY,bottomRightX,bottomRightY);
-		this.leafPoints = new HashSet<T>();
+		this(topLeftX,topLeftY,bottomRightX,bottomRightY,Trie.getCapacity());
 	}
 	
-	void collectAll(Set<T> nodes) {
-		for (T aux : leafPoints) {
-			nodes.add(aux);
-		}
-		return;
+	LeafTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int capacity) {
+		this(topLeftX,topLeftY,bottomRightX,bottomRightY,new Settings(capacity,Trie.DEFAULT_MAX_DEPTH),0);
+	}
+	
+	LeafTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, Settings settings, int depth) {
+		super(topLeftX,topLeftY,bottomRightX,bottomRightY,settings,depth);
+		this.leafPoints = new HashMap<Entry<T>, Entry<T>>();
+		this.size = 0;
+	}
+	
+	/**
+	 * Returns this leaf if it may be changed in place, or a copy of it if it is shared with a snapshot.
+	 * @return A leaf of the current epoch
+	 */
+	private LeafTrie<T> writable() {
+		if (isWritable())
+			return this;
+		LeafTrie<T> leaf = new LeafTrie<T>(topLeftX, topLeftY, bottomRightX, bottomRightY, settings, depth);
+		visitEntries(entry -> { leaf.add(entry.point, entry.x, entry.y); return true; });
+		return leaf;
+	}
+	
+	/**
+	 * Visits all the points inside this leaf, until the visitor returns false.
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitAll(Predicate<? super T> visitor) {
+		return visitEntries(entry -> visitor.test(entry.point));
 	}
 
 	/**
-	 * Collects points inside this leaf that are inside the range of the specified circle.<br>
+	 * Visits points inside this leaf that are inside the range of the specified circle, until the visitor returns false.<br>
 	 * The overlaps method used inside receives the square of (circle_x - point_x) and (circle_y - point_y).<br>
 	 * Uses an adaption of the Pythagorean Theorem to verify if the point is contained in the circle.
 	 * @param x (double)
 	 * @param y (double)
 	 * @param radius (double)
-	 * @param nodes (Set of T extends HasPoint)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
 	 */
-	void collectNear(double x, double y, double radius, Set<T> nodes) {
-		for (T aux : leafPoints) {
-			if (overlaps(Math.pow(x - aux.getX(),2),Math.pow(y - aux.getY(),2),radius)) {
-				nodes.add(aux);
+	boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		for (Entry<T> head : leafPoints.values()) {
+			for (Entry<T> entry = head; entry != null; entry = entry.next) {
+				T aux = entry.point;
+				if (overlaps(Math.pow(x - aux.getX(),2),Math.pow(y - aux.getY(),2),radius)) {
+					if (!visitor.test(aux))
+						return false;
+				}
 			}
 		}
-		return;
+		return true;
 	}
 	
-	void delete(T point) {
-		for (T aux : leafPoints) {
-			if (aux.getX() == point.getX() && aux.getY() == point.getY())
-				leafPoints.remove(aux);
+	/**
+	 * Visits the points inside this leaf that are inside the specified rectangle, boundaries included, until the visitor returns false.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		for (Entry<T> head : leafPoints.values()) {
+			for (Entry<T> entry = head; entry != null; entry = entry.next) {
+				T aux = entry.point;
+				if (aux.getX() >= minX && aux.getX() <= maxX && aux.getY() >= minY && aux.getY() <= maxY) {
+					if (!visitor.test(aux))
+						return false;
+				}
+			}
 		}
+		return true;
+	}
+	
+	/**
+	 * Offers the points inside this leaf to the given queue of a nearest neighbour search.
+	 * @param queue (NearestQueue of T extends HasPoint)
+	 */
+	void expandNearest(NearestQueue<T> queue) {
+		visitEntries(entry -> { queue.offer(entry.point); return true; });
 		return;
 	}
 	
-	T find(T point) {
-		for (T aux : leafPoints) {
-			if (aux.getX() == point.getX() && aux.getY() == point.getY() )
-				return aux;
+	/**
+	 * Removes the given point from the leaf, looking for it at the coordinates where it was indexed.<br>
+	 * Other points sharing the same coordinates (e.g. distinct rides at the same location) are kept.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 * @return This leaf, or a copy of it if it was shared with a snapshot.
+	 */
+	Trie<T> delete(T point, double x, double y) {
+		LeafTrie<T> leaf = writable();
+		leaf.remove(point, x, y);
+		return leaf;
+	}
+	
+	int countTries() {
+		return 1;
+	}
+	
+	int deepest() {
+		return depth;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * Visits all the entries of the leaf, chain by chain, until the visitor returns false.
+	 * @param visitor (Predicate of Entry)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	private boolean visitEntries(Predicate<Entry<T>> visitor) {
+		for (Entry<T> head : leafPoints.values()) {
+			for (Entry<T> entry = head; entry != null; entry = entry.next) {
+				if (!visitor.test(entry))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the given point from the chain of the given coordinates, comparing by identity or equality.<br>
+	 * Only that chain is looked at, so a point whose coordinates changed must be moved, with its old coordinates, before it is deleted.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 * @return true if the point was found and removed.
+	 */
+	private boolean remove(T point, double x, double y) {
+		Entry<T> head = leafPoints.get(new Entry<T>(x, y, null));
+		return head != null && remove(head, point);
+	}
+	
+	/**
+	 * Removes the given point from a chain, comparing by identity or equality.
+	 * If it is the first entry, the next one takes its place as the key of the chain.
+	 * @param head first entry of the chain (Entry)
+	 * @param point (T extends HasPoint)
+	 * @return true if the point was found and removed.
+	 */
+	private boolean remove(Entry<T> head, T point) {
+		if (head.point == point || head.point.equals(point)) {
+			leafPoints.remove(head);
+			if (head.next != null)
+				leafPoints.put(head.next, head.next);
+			size--;
+			return true;
+		}
+		for (Entry<T> entry = head; entry.next != null; entry = entry.next) {
+			if (entry.next.point == point || entry.next.point.equals(point)) {
+				entry.next = entry.next.next;
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds a point to the chain of the given coordinates, after its first entry, unless it is already in the chain.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 */
+	private void add(T point, double x, double y) {
+		Entry<T> entry = new Entry<T>(x, y, point);
+		Entry<T> head = leafPoints.putIfAbsent(entry, entry);
+		if (head != null) {
+			if (contains(head, point))
+				return;
+			entry.next = head.next;
+			head.next = entry;
+		}
+		size++;
+	}
+	
+	/**
+	 * Checks if the given point is in a chain, comparing by identity or equality.
+	 * @param head first entry of the chain, or null (Entry)
+	 * @param point (T extends HasPoint)
+	 * @return true if the point is in the chain.
+	 */
+	private boolean contains(Entry<T> head, T point) {
+		for (Entry<T> entry = head; entry != null; entry = entry.next) {
+			if (entry.point == point || entry.point.equals(point))
+				return true;
 		}
-		return null;
+		return false;
+	}
+	
+	T find(T point) {
+		Entry<T> head = leafPoints.get(new Entry<T>(point.getX(), point.getY(), null));
+		return head == null ? null : head.point;
 	}
 	
 	/**
 	 * Inserts a point inside the leaf.<br>
-	 * If the leaf has reached the max capacity, it will convert itself to a NodeTrie and will populate it with its points.<br>
+	 * If the leaf has reached its capacity, it will convert itself to a NodeTrie and will populate it with its points.<br>
+	 * A leaf at the maximum depth, or holding only points with the same coordinates as the new one, 
+	 * can't separate its points by splitting, so it holds them beyond its capacity instead (overflow bucket).<br>
+	 * A point already in the leaf, the same or an equal one, is kept once and the leaf is left unchanged.<br>
 	 * If the point isn't in the trie's range, it will throw a PointOutOfBoundException.
 	 * @param point (T extends HasPoint)
 	 * @return Trie of T extends HasPoint
@@ -74,20 +276,32 @@ public class LeafTrie<T extends HasPoint> extends Trie<T>  {
 		if (!this.checkRange(point)) {
 			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
 		}
-		if (leafPoints.size() >= Trie.getCapacity() ) {
-			NodeTrie<T> newNode = new NodeTrie<T>(this.topLeftX, this.topLeftY, this.bottomRightX, this.bottomRightY);
-			for (T aux : this.leafPoints) {
-				newNode.insert(aux);
-			}
+		if (contains(leafPoints.get(new Entry<T>(point.getX(), point.getY(), null)), point))
+			return this;
+		if (size >= settings.capacity && depth < settings.maxDepth && !allAt(point.getX(),point.getY())) {
+			NodeTrie<T> newNode = new NodeTrie<T>(this.topLeftX, this.topLeftY, this.bottomRightX, this.bottomRightY, this.settings, this.depth);
+			visitEntries(entry -> { newNode.insert(entry.point); return true; });
 			newNode.insert(point);
 			return newNode;
 		}
-		leafPoints.add(point);
-		return this;
+		LeafTrie<T> leaf = writable();
+		leaf.add(point, point.getX(), point.getY());
+		return leaf;
 	}
 	
 	/**
-	 * Checks if a point with the same coordinates is inside the leaf, if so, removes it and adds a new one.
+	 * Checks if all the points inside the leaf have the given coordinates.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return true if all points are at (x,y), or if the leaf is empty.
+	 */
+	private boolean allAt(double x, double y) {
+		return leafPoints.isEmpty() || (leafPoints.size() == 1 && leafPoints.containsKey(new Entry<T>(x, y, null)));
+	}
+	
+	/**
+	 * Checks if a point with the same coordinates is inside the leaf, if so, replaces it with the new one.
+	 * Otherwise the point is inserted, splitting the leaf if it is full.
 	 * If the point isn't in the trie's range, it will throw a PointOutOfBoundException.
 	 * @param point (T extends HasPoint)
 	 * @return Trie of T extends HasPoint
@@ -96,22 +310,58 @@ public class LeafTrie<T extends HasPoint> extends Trie<T>  {
 		if (!checkRange(point)) {
 				throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
 		}
-		leafPoints.remove(this.find(point));
-		leafPoints.add(point);
-		return this;
+		if (find(point) == null)
+			return insert(point);
+		LeafTrie<T> leaf = writable();
+		leaf.leafPoints.get(new Entry<T>(point.getX(), point.getY(), null)).point = point;
+		return leaf;
+	}
+	
+	/**
+	 * Updates a point whose coordinates changed while staying inside this leaf.<br>
+	 * The point is removed from the chain of its old coordinates and added to the chain of the current ones.
+	 * If it wasn't in the leaf, it is simply inserted.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 * @return Trie of T extends HasPoint
+	 */
+	Trie<T> move(T point, double oldX, double oldY) {
+		if (!checkRange(point)) {
+			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+		}
+		LeafTrie<T> leaf = writable();
+		if (!leaf.remove(point, oldX, oldY))
+			return leaf.insert(point);
+		leaf.add(point, point.getX(), point.getY());
+		return leaf;
 	}
 	
 	@Override
 	public String toString() {
-			return "LeafTrie with " + leafPoints.size() + "points";
+			return "LeafTrie with " + size + "points";
 	}
 
+	/**
+	 * Returns a new set with the points inside the leaf.
+	 * @return Set of T extends HasPoint
+	 */
 	public Set<T> getLeafPoints() {
-		return leafPoints;
+		Set<T> set = new HashSet<T>();
+		visitAll(set::add);
+		return set;
 	}
 
+	/**
+	 * Replaces the points inside the leaf with the given ones, indexed at their current coordinates.
+	 * @param leafPoints (Set of T extends HasPoint)
+	 */
 	public void setLeafPoints(Set<T> leafPoints) {
-		this.leafPoints = leafPoints;
+		this.leafPoints = new HashMap<Entry<T>, Entry<T>>();
+		this.size = 0;
+		for (T point : leafPoints) {
+			add(point, point.getX(), point.getY());
+		}
 	}
 
 }
@@ -0,0 +1,566 @@
+package rsa.quad;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * <b>Class MortonIndex</b>
+ * <br>
+ * This class represents a linear quadtree: an alternative to PointQuadtree with no nodes,
+ * that keys each point by the Z-order (Morton) code of its coordinates over the index range.<br>
+ * The coordinates are scaled to integers of BITS bits, and the code interleaves their bits, x in the even positions and y in the odd ones.
+ * Each quadrant of a PointQuadtree, at any depth, is then a contiguous interval of codes.<br>
+ * The points are kept sorted by code, along with their coordinates, in chunks of parallel arrays
+ * ordered in an array of chunks (a B+-tree of two levels), so a query covers its area with a few quadrants
+ * and scans their intervals of codes, mostly inside contiguous arrays.<br>
+ * Inserting and deleting shift the arrays of a single chunk; a full chunk splits in two, and an empty one is removed.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.PointQuadtree PointQuadtree
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class MortonIndex<T extends HasPoint> implements SpatialIndex<T> {
+
+	/**
+	 * Number of bits of each scaled coordinate, so codes are positive longs.
+	 */
+	final static int BITS = 31;
+
+	/**
+	 * Maximum number of points in a chunk; a full chunk splits in two halves.
+	 */
+	final static int CHUNK_LENGTH = 128;
+
+	private final static long CELLS = 1L << BITS;
+	private final static int INITIAL_CHUNKS = 16;
+
+	private final double topLeftX;
+	private final double topLeftY;
+	private final double bottomRightX;
+	private final double bottomRightY;
+	private final double scaleX;
+	private final double scaleY;
+
+	private Chunk[] chunks;
+	private int chunkCount;
+	private int size;
+
+	/**
+	 * <b>Class Chunk</b>
+	 * <br>Sorted run of points, with their codes and coordinates in parallel arrays.
+	 * The last code of a chunk is never larger than the first code of the next one.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static final class Chunk {
+		final long[] codes = new long[CHUNK_LENGTH];
+		final double[] xs = new double[CHUNK_LENGTH];
+		final double[] ys = new double[CHUNK_LENGTH];
+		final Object[] points = new Object[CHUNK_LENGTH];
+		int size;
+
+		void insertAt(int index, long code, double x, double y, Object point) {
+			System.arraycopy(codes, index, codes, index+1, size-index);
+			System.arraycopy(xs, index, xs, index+1, size-index);
+			System.arraycopy(ys, index, ys, index+1, size-index);
+			System.arraycopy(points, index, points, index+1, size-index);
+			codes[index] = code;
+			xs[index] = x;
+			ys[index] = y;
+			points[index] = point;
+			size++;
+		}
+
+		void removeAt(int index) {
+			size--;
+			System.arraycopy(codes, index+1, codes, index, size-index);
+			System.arraycopy(xs, index+1, xs, index, size-index);
+			System.arraycopy(ys, index+1, ys, index, size-index);
+			System.arraycopy(points, index+1, points, index, size-index);
+			points[size] = null;
+		}
+
+		/**
+		 * Moves the upper half of this chunk to a new one.
+		 * @return The new chunk (Chunk)
+		 */
+		Chunk split() {
+			Chunk upper = new Chunk();
+			int half = size / 2;
+			upper.size = size - half;
+			System.arraycopy(codes, half, upper.codes, 0, upper.size);
+			System.arraycopy(xs, half, upper.xs, 0, upper.size);
+			System.arraycopy(ys, half, upper.ys, 0, upper.size);
+			System.arraycopy(points, half, upper.points, 0, upper.size);
+			Arrays.fill(points, half, size, null);
+			size = half;
+			return upper;
+		}
+
+		/**
+		 * Returns the position of the first code not smaller than the given one.
+		 * @param code (long)
+		 * @return The position (int)
+		 */
+		int lowerBound(long code) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (codes[middle] < code)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		/**
+		 * Returns the position of the first code larger than the given one.
+		 * @param code (long)
+		 * @return The position (int)
+		 */
+		int upperBound(long code) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (codes[middle] <= code)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * <b>Interface CoordinateTest</b>
+	 * <br>Exact test of the coordinates of the points scanned by a query.
+	 */
+	private interface CoordinateTest {
+		boolean accepts(double x, double y);
+	}
+
+	/**
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 */
+	public MortonIndex(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
+		this.topLeftX = topLeftX;
+		this.topLeftY = topLeftY;
+		this.bottomRightX = bottomRightX;
+		this.bottomRightY = bottomRightY;
+		this.scaleX = CELLS / (bottomRightX - topLeftX);
+		this.scaleY = CELLS / (topLeftY - bottomRightY);
+		this.chunks = new Chunk[INITIAL_CHUNKS];
+		this.chunkCount = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the number of points in the index.
+	 * @return The size (int)
+	 */
+	public int size() {
+		return size;
+	}
+
+	public T find(T point) {
+		double x = point.getX();
+		double y = point.getY();
+		if (!inRange(x,y))
+			return null;
+		long code = codeOf(x,y);
+		for (int c = firstChunk(code); c < chunkCount; c++) {
+			Chunk chunk = chunks[c];
+			for (int i = chunk.lowerBound(code); i < chunk.size; i++) {
+				if (chunk.codes[i] != code)
+					return null;
+				if (chunk.xs[i] == x && chunk.ys[i] == y)
+					return pointAt(chunk, i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts the given point after the points with the same code, splitting its chunk if it is full.<br>
+	 * If the point isn't in the index's range, it will throw a PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 */
+	public void insert(T point) throws PointOutOfBoundException {
+		double x = point.getX();
+		double y = point.getY();
+		if (!inRange(x,y))
+			throw new PointOutOfBoundException("This point doesn't belong to this index!");
+		insert(point, codeOf(x,y), x, y);
+	}
+
+	private void insert(T point, long code, double x, double y) {
+		if (chunkCount == 0)
+			insertChunk(0, new Chunk());
+		int c = lastChunk(code);
+		Chunk chunk = chunks[c];
+		if (chunk.size == CHUNK_LENGTH) {
+			Chunk upper = chunk.split();
+			insertChunk(c+1, upper);
+			if (upper.codes[0] <= code)
+				chunk = upper;
+		}
+		chunk.insertAt(chunk.upperBound(code), code, x, y, point);
+		size++;
+	}
+
+	public void delete(T point) {
+		double x = point.getX();
+		double y = point.getY();
+		if (inRange(x,y))
+			remove(point, codeOf(x,y));
+	}
+
+	/**
+	 * Reindexes a point whose coordinates changed from (oldX,oldY) to its current ones.<br>
+	 * If its code didn't change, only its coordinates are updated in place.
+	 * If it wasn't in the index, it is simply inserted.<br>
+	 * If the point isn't in the index's range, it will throw a PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 */
+	public void move(T point, double oldX, double oldY) throws PointOutOfBoundException {
+		double x = point.getX();
+		double y = point.getY();
+		if (!inRange(x,y))
+			throw new PointOutOfBoundException("This point doesn't belong to this index!");
+		long code = codeOf(x,y);
+		if (inRange(oldX,oldY) && codeOf(oldX,oldY) == code) {
+			for (int c = firstChunk(code); c < chunkCount; c++) {
+				Chunk chunk = chunks[c];
+				for (int i = chunk.lowerBound(code); i < chunk.size && chunk.codes[i] == code; i++) {
+					if (chunk.points[i] == point || chunk.points[i].equals(point)) {
+						chunk.xs[i] = x;
+						chunk.ys[i] = y;
+						return;
+					}
+				}
+				if (chunk.size > 0 && chunk.codes[chunk.size-1] != code)
+					break;
+			}
+		}
+		else if (inRange(oldX,oldY))
+			remove(point, codeOf(oldX,oldY));
+		insert(point, code, x, y);
+	}
+
+	public Set<T> findNear(double x, double y, double radius) {
+		Set<T> set = new HashSet<T>();
+		visitNear(x, y, radius, set::add);
+		return set;
+	}
+
+	public void forEachNear(double x, double y, double radius, Consumer<? super T> visitor) {
+		visitNear(x, y, radius, point -> { visitor.accept(point); return true; });
+	}
+
+	/**
+	 * Visits the points inside the circle of given center and radius, boundary included, until the visitor returns false.<br>
+	 * The intervals of codes covering the bounding square of the circle are scanned,
+	 * testing the squared distances of the points against the squared radius.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		double squaredRadius = radius * radius;
+		return visitBox(x - radius, y - radius, x + radius, y + radius,
+				(px,py) -> (px-x)*(px-x) + (py-y)*(py-y) <= squaredRadius, visitor);
+	}
+
+	public Set<T> findInRect(double minX, double minY, double maxX, double maxY) {
+		Set<T> set = new HashSet<T>();
+		visitInRect(minX, minY, maxX, maxY, set::add);
+		return set;
+	}
+
+	public void forEachInRect(double minX, double minY, double maxX, double maxY, Consumer<? super T> visitor) {
+		visitInRect(minX, minY, maxX, maxY, point -> { visitor.accept(point); return true; });
+	}
+
+	/**
+	 * Visits the points inside the given rectangle, boundaries included, until the visitor returns false.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		return visitBox(minX, minY, maxX, maxY,
+				(px,py) -> px >= minX && px <= maxX && py >= minY && py <= maxY, visitor);
+	}
+
+	public Set<T> getAll() {
+		Set<T> set = new HashSet<T>();
+		forEach(set::add);
+		return set;
+	}
+
+	public void forEach(Consumer<? super T> visitor) {
+		for (int c = 0; c < chunkCount; c++) {
+			for (int i = 0; i < chunks[c].size; i++) {
+				visitor.accept(pointAt(chunks[c], i));
+			}
+		}
+	}
+
+	/**
+	 * Visits the points of the intervals of codes covering the given box that pass the given test, until the visitor returns false.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param test exact test of the coordinates (CoordinateTest)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	private boolean visitBox(double minX, double minY, double maxX, double maxY, CoordinateTest test, Predicate<? super T> visitor) {
+		minX = Math.max(minX, topLeftX);
+		minY = Math.max(minY, bottomRightY);
+		maxX = Math.min(maxX, bottomRightX);
+		maxY = Math.min(maxY, topLeftY);
+		if (minX > maxX || minY > maxY || size == 0)
+			return true;
+		long[] ranges = coverBox(scaleX(minX), scaleY(minY), scaleX(maxX), scaleY(maxY));
+		for (int r = 0; r < ranges.length && ranges[r] >= 0; r += 2) {
+			long last = ranges[r+1];
+			scan:
+			for (int c = firstChunk(ranges[r]); c < chunkCount; c++) {
+				Chunk chunk = chunks[c];
+				for (int i = chunk.lowerBound(ranges[r]); i < chunk.size; i++) {
+					if (chunk.codes[i] > last)
+						break scan;
+					if (test.accepts(chunk.xs[i], chunk.ys[i]) && !visitor.test(pointAt(chunk, i)))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the intervals of codes of the quadrants covering a box of scaled coordinates, in increasing order.<br>
+	 * Quadrants are split only while they are larger than a quarter of the box,
+	 * so the box is covered by a few intervals that may include some points outside it.
+	 * @param minX (long)
+	 * @param minY (long)
+	 * @param maxX (long)
+	 * @param maxY (long)
+	 * @return Pairs of first and last codes, inclusive, followed by -1 if the array isn't full (long[])
+	 */
+	private long[] coverBox(long minX, long minY, long maxX, long maxY) {
+		long side = Math.max(maxX - minX, maxY - minY) + 1;
+		int stopLevel = Math.max(0, 63 - Long.numberOfLeadingZeros(side) - 2);
+		long[] ranges = new long[16];
+		ranges[0] = -1;
+		return cover(0, 0, BITS, minX, minY, maxX, maxY, stopLevel, ranges);
+	}
+
+	/**
+	 * Adds the intervals of codes covering the intersection of a box with a quadrant, merging adjacent intervals.
+	 * @param cellX smallest scaled x of the quadrant (long)
+	 * @param cellY smallest scaled y of the quadrant (long)
+	 * @param level log2 of the side of the quadrant (int)
+	 * @param minX (long)
+	 * @param minY (long)
+	 * @param maxX (long)
+	 * @param maxY (long)
+	 * @param stopLevel level under which quadrants aren't split (int)
+	 * @param ranges (long[])
+	 * @return The ranges, or a larger copy of them (long[])
+	 */
+	private long[] cover(long cellX, long cellY, int level, long minX, long minY, long maxX, long maxY, int stopLevel, long[] ranges) {
+		long last = (1L << level) - 1;
+		if (cellX > maxX || cellX + last < minX || cellY > maxY || cellY + last < minY)
+			return ranges;
+		boolean inside = cellX >= minX && cellX + last <= maxX && cellY >= minY && cellY + last <= maxY;
+		if (inside || level <= stopLevel) {
+			long first = interleave(cellX, cellY);
+			return addRange(ranges, first, first + (1L << 2*level) - 1);
+		}
+		long half = 1L << (level - 1);
+		ranges = cover(cellX, cellY, level - 1, minX, minY, maxX, maxY, stopLevel, ranges);
+		ranges = cover(cellX + half, cellY, level - 1, minX, minY, maxX, maxY, stopLevel, ranges);
+		ranges = cover(cellX, cellY + half, level - 1, minX, minY, maxX, maxY, stopLevel, ranges);
+		return cover(cellX + half, cellY + half, level - 1, minX, minY, maxX, maxY, stopLevel, ranges);
+	}
+
+	/**
+	 * Adds an interval of codes after the last one, merging them if they are adjacent.
+	 * @param ranges (long[])
+	 * @param first (long)
+	 * @param last (long)
+	 * @return The ranges, or a larger copy of them (long[])
+	 */
+	private static long[] addRange(long[] ranges, long first, long last) {
+		int end = 0;
+		while (end < ranges.length && ranges[end] >= 0)
+			end += 2;
+		if (end > 0 && ranges[end-1] + 1 == first) {
+			ranges[end-1] = last;
+			return ranges;
+		}
+		if (end + 2 >= ranges.length)
+			ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+		ranges[end] = first;
+		ranges[end+1] = last;
+		ranges[end+2] = -1;
+		return ranges;
+	}
+
+	/**
+	 * Removes the given point from the chunks, among the points with the given code, comparing by identity or equality.<br>
+	 * A chunk left empty is removed.
+	 * @param point (T extends HasPoint)
+	 * @param code (long)
+	 */
+	private void remove(T point, long code) {
+		for (int c = firstChunk(code); c < chunkCount; c++) {
+			Chunk chunk = chunks[c];
+			for (int i = chunk.lowerBound(code); i < chunk.size; i++) {
+				if (chunk.codes[i] != code)
+					return;
+				if (chunk.points[i] == point || chunk.points[i].equals(point)) {
+					chunk.removeAt(i);
+					size--;
+					if (chunk.size == 0)
+						removeChunk(c);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the first chunk whose last code isn't smaller than the given one,
+	 * where points with that code start.
+	 * @param code (long)
+	 * @return The position of the chunk, or the number of chunks if there is none (int)
+	 */
+	private int firstChunk(long code) {
+		int low = 0;
+		int high = chunkCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			Chunk chunk = chunks[middle];
+			if (chunk.codes[chunk.size-1] < code)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position of the last chunk whose first code isn't larger than the given one,
+	 * where a point with that code is inserted.
+	 * @param code (long)
+	 * @return The position of the chunk, or 0 if there is none (int)
+	 */
+	private int lastChunk(long code) {
+		int low = 0;
+		int high = chunkCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (chunks[middle].codes[0] <= code)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return Math.max(0, low - 1);
+	}
+
+	private void insertChunk(int index, Chunk chunk) {
+		if (chunkCount == chunks.length)
+			chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+		System.arraycopy(chunks, index, chunks, index+1, chunkCount-index);
+		chunks[index] = chunk;
+		chunkCount++;
+	}
+
+	private void removeChunk(int index) {
+		chunkCount--;
+		System.arraycopy(chunks, index+1, chunks, index, chunkCount-index);
+		chunks[chunkCount] = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T pointAt(Chunk chunk, int index) {
+		return (T) chunk.points[index];
+	}
+
+	/**
+	 * Checks if the given coordinates are inside the index's range, boundaries included.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return true if they are inside the range.
+	 */
+	private boolean inRange(double x, double y) {
+		return x >= topLeftX && x <= bottomRightX && y >= bottomRightY && y <= topLeftY;
+	}
+
+	/**
+	 * Returns the Morton code of coordinates inside the index's range.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return The code (long)
+	 */
+	long codeOf(double x, double y) {
+		return interleave(scaleX(x), scaleY(y));
+	}
+
+	private long scaleX(double x) {
+		return Math.min(CELLS - 1, (long) ((x - topLeftX) * scaleX));
+	}
+
+	private long scaleY(double y) {
+		return Math.min(CELLS - 1, (long) ((y - bottomRightY) * scaleY));
+	}
+
+	/**
+	 * Interleaves the bits of two scaled coordinates, x in the even positions and y in the odd ones.
+	 * @param x (long)
+	 * @param y (long)
+	 * @return The Morton code (long)
+	 */
+	static long interleave(long x, long y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	/**
+	 * Spreads the BITS lower bits of a value to the even positions of a long.
+	 * @param value (long)
+	 * @return The spread value (long)
+	 */
+	private static long spread(long value) {
+		value &= CELLS - 1;
+		value = (value | (value << 16)) & 0x0000FFFF0000FFFFL;
+		value = (value | (value << 8)) & 0x00FF00FF00FF00FFL;
+		value = (value | (value << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		value = (value | (value << 2)) & 0x3333333333333333L;
+		value = (value | (value << 1)) & 0x5555555555555555L;
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "MortonIndex with " + size + " points";
+	}
+
+}
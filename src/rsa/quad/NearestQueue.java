@@ -0,0 +1,76 @@
+package rsa.quad;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <b>Class NearestQueue</b>
+ * <br>
+ * This class implements the priority queue of a best-first nearest neighbour search on a quadtree.<br>
+ * It holds both Tries and points, ordered by their distance to the searched coordinates.
+ * For a Trie, the distance is the one to the closest point of its range, thus no point inside it can be closer.
+ * Hence, when a point reaches the head of the queue, no other point in the tree is nearer.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+class NearestQueue<T extends HasPoint> {
+
+	private double x;
+	private double y;
+	private PriorityQueue<Entry<T>> queue;
+	
+	NearestQueue(double x, double y) {
+		this.x = x;
+		this.y = y;
+		this.queue = new PriorityQueue<Entry<T>>();
+	}
+	
+	void offer(Trie<T> trie) {
+		queue.add(new Entry<T>(trie.squaredDistanceTo(x,y),trie,null));
+	}
+	
+	void offer(T point) {
+		queue.add(new Entry<T>(Math.pow(x - point.getX(),2) + Math.pow(y - point.getY(),2),null,point));
+	}
+	
+	/**
+	 * Polls the queue, expanding the Tries that reach its head, until k points are found or the queue is empty.
+	 * @param k (int)
+	 * @return List of the nearest points, sorted by increasing distance.
+	 */
+	List<T> nearest(int k) {
+		List<T> points = new ArrayList<T>();
+		while (points.size() < k && !queue.isEmpty()) {
+			Entry<T> entry = queue.poll();
+			if (entry.trie == null)
+				points.add(entry.point);
+			else
+				entry.trie.expandNearest(this);
+		}
+		return points;
+	}
+	
+	/**
+	 * Class Entry<br>
+	 * (Parent Class NearestQueue)
+	 * An element of the queue, either a Trie or a point, with its squared distance to the searched coordinates.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static class Entry<T extends HasPoint> implements Comparable<Entry<T>> {
+		private double distance;
+		private Trie<T> trie;
+		private T point;
+		
+		Entry(double distance, Trie<T> trie, T point) {
+			this.distance = distance;
+			this.trie = trie;
+			this.point = point;
+		}
+
+		@Override
+		public int compareTo(Entry<T> other) {
+			return Double.compare(this.distance, other.distance);
+		}
+	}
+}
@@ -1,13 +1,12 @@
 package rsa.quad;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.function.Predicate;
 import java.lang.String;
 
 /**
  * <b>Class NodeTrie</b>
  * <br>
- * This class represents a Trie that has 4 child Tries each one represented by a quadrant. It stores the child Tries in a map.<br>
+ * This class represents a Trie that has 4 child Tries each one represented by a quadrant. 
+ * It stores the child Tries in a fixed array indexed by the quadrant's ordinal, and keeps the midpoints of its range to route points.<br>
  * Corresponds to the Composite Design Pattern.<br>
  * This class is parametrized by a type that extends the HasPoint interface.
  * @see rsa.quad.HasPoint HasPoint interface
@@ -15,59 +14,294 @@ import java.lang.String;
  */
 public class NodeTrie<T extends HasPoint> extends Trie<T> {
 
-	private Map< Trie.Quadrant, Trie<T> > tries;
+	/**
+	 * Order of the parts of a batch of points partitioned by quadrant.
+	 */
+	private static final Trie.Quadrant[] PARTITION_ORDER = { Trie.Quadrant.SW, Trie.Quadrant.NW, Trie.Quadrant.SE, Trie.Quadrant.NE };
+
+	private final Trie<T>[] tries;
+	private final double middleX;
+	private final double middleY;
 	
 	/**
-	 * Constructs the NodeTrie, calling the super-constructor, creating a map, and populating it with each one of
-	 * the four child Tries (LeafTries).
+	 * Constructs the NodeTrie, calling the super-constructor, creating the array of children, and populating it with each one of
+	 * the four child Tries (leaves of the kind given by the settings).
 	 * @param topLeftX (double)
 	 * @param topLeftY (double)
 	 * @param bottomRightX (double)
 	 * @param bottomRightY (double)
 	 */
 	protected NodeTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
-		super(topLeftX, topLeftY, bottomRightX, bottomRightY);
-		this.tries = new HashMap< Trie.Quadrant, Trie<T> >();
+		this(topLeftX, topLeftY, bottomRightX, bottomRightY, new Settings(Trie.getCapacity(), Trie.DEFAULT_MAX_DEPTH), 0);
+	}
+	
+	/**
+	 * Constructs the NodeTrie as above, at the given depth of a quadtree with the given settings.
+	 * The child Tries are one level deeper and share the same settings.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param settings (Settings)
+	 * @param depth (int)
+	 */
+	protected NodeTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, Settings settings, int depth) {
+		super(topLeftX, topLeftY, bottomRightX, bottomRightY, settings, depth);
+		this.middleX = (bottomRightX + topLeftX)/2;
+		this.middleY = (topLeftY + bottomRightY)/2;
+		this.tries = newTries();
 		
-		tries.put(Trie.Quadrant.NW, new LeafTrie<T>(topLeftX, topLeftY, (bottomRightX + topLeftX)/2, (topLeftY + bottomRightY)/2));
-		tries.put(Trie.Quadrant.NE, new LeafTrie<T>((bottomRightX + topLeftX)/2, topLeftY, bottomRightX, (topLeftY + bottomRightY)/2));
-		tries.put(Trie.Quadrant.SW, new LeafTrie<T>(topLeftX, (topLeftY + bottomRightY)/2, (bottomRightX + topLeftX)/2, bottomRightY));
-		tries.put(Trie.Quadrant.SE, new LeafTrie<T>((bottomRightX + topLeftX)/2, (topLeftY + bottomRightY)/2, bottomRightX, bottomRightY));
+		tries[Trie.Quadrant.NW.ordinal()] = settings.newLeaf(topLeftX, topLeftY, middleX, middleY, depth+1);
+		tries[Trie.Quadrant.NE.ordinal()] = settings.newLeaf(middleX, topLeftY, bottomRightX, middleY, depth+1);
+		tries[Trie.Quadrant.SW.ordinal()] = settings.newLeaf(topLeftX, middleY, middleX, bottomRightY, depth+1);
+		tries[Trie.Quadrant.SE.ordinal()] = settings.newLeaf(middleX, middleY, bottomRightX, bottomRightY, depth+1);
+	}
+	
+	/**
+	 * Constructs the NodeTrie with the given child Tries, indexed by the ordinal of their quadrant, as built by a TrieBuilder.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param settings (Settings)
+	 * @param depth (int)
+	 * @param tries (array of Trie of "T extends HasPoint")
+	 */
+	NodeTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, Settings settings, int depth, Trie<T>[] tries) {
+		this(topLeftX, topLeftY, bottomRightX, bottomRightY, (bottomRightX + topLeftX)/2, (topLeftY + bottomRightY)/2, settings, depth, tries);
+	}
+	
+	/**
+	 * Constructs the NodeTrie with the given child Tries and midpoints, 
+	 * for a root grown around an existing Trie whose edges must be the midpoints exactly, whatever the rounding of the average.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param middleX (double)
+	 * @param middleY (double)
+	 * @param settings (Settings)
+	 * @param depth (int)
+	 * @param tries (array of Trie of "T extends HasPoint")
+	 */
+	NodeTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, double middleX, double middleY, Settings settings, int depth, Trie<T>[] tries) {
+		super(topLeftX, topLeftY, bottomRightX, bottomRightY, settings, depth);
+		this.middleX = middleX;
+		this.middleY = middleY;
+		this.tries = tries;
 	}
 	
 	/**
-	 * Recursively collects all the points from the descendants of the current node and places them in the given Set.
-	 * @param points (Set of "T extends HasPoint")
+	 * Constructs a copy of the given node, in the current epoch of its settings, sharing its child Tries.
+	 * @param other (NodeTrie of "T extends HasPoint")
 	 */
-	void collectAll(Set<T> points) {		
-		for (Map.Entry< Trie.Quadrant, Trie<T> > mapEntry : tries.entrySet() ) {
-			mapEntry.getValue().collectAll(points);
+	private NodeTrie(NodeTrie<T> other) {
+		super(other.topLeftX, other.topLeftY, other.bottomRightX, other.bottomRightY, other.settings, other.depth);
+		this.middleX = other.middleX;
+		this.middleY = other.middleY;
+		this.tries = other.tries.clone();
+	}
+	
+	/**
+	 * Returns this node if it may be changed in place, or a copy of it if it is shared with a snapshot.<br>
+	 * Only the copied node is changed, hence snapshots keep their own path down to the changed leaf.
+	 * @return A node of the current epoch
+	 */
+	private NodeTrie<T> writable() {
+		return isWritable() ? this : new NodeTrie<T>(this);
+	}
+	
+	/**
+	 * Recursively visits all the points from the descendants of the current node, until the visitor returns false.
+	 * @param visitor (Predicate of "T extends HasPoint")
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitAll(Predicate<? super T> visitor) {		
+		for (Trie<T> trie : tries) {
+			if (!trie.visitAll(visitor))
+				return false;
 		}
-		return;
+		return true;
 	}
 	
 	/**
-	 * Recursively collects the points that are near the specified circle from the descendants of the current node and places them in the given Set.
+	 * Recursively visits the points that are near the specified circle from the descendants of the current node, until the visitor returns false.<br>
+	 * Only the child Tries whose range intersects the circle are visited.
 	 * @param x (double)
 	 * @param y (double)
 	 * @param radius (double)
-	 * @param nodes (Set of "T extends HasPoint")
+	 * @param visitor (Predicate of "T extends HasPoint")
+	 * @return false if the visitor stopped the traversal.
 	 */
-	void collectNear(double x, double y, double radius, Set<T> nodes) {
-		
-		for (Map.Entry< Trie.Quadrant, Trie<T> > mapEntry : tries.entrySet() ) {
-			mapEntry.getValue().collectNear(x,y,radius,nodes);
+	boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		for (Trie<T> trie : tries) {
+			if (trie.intersects(x,y,radius) && !trie.visitNear(x,y,radius,visitor))
+				return false;
 		}
-		return;
+		return true;
+	}
+	
+	/**
+	 * Recursively visits the points inside the specified rectangle from the descendants of the current node, until the visitor returns false.<br>
+	 * Only the child Tries whose range intersects the rectangle are visited.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of "T extends HasPoint")
+	 * @return false if the visitor stopped the traversal.
+	 */
+	boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		for (Trie<T> trie : tries) {
+			if (trie.intersects(minX,minY,maxX,maxY) && !trie.visitInRect(minX,minY,maxX,maxY,visitor))
+				return false;
+		}
+		return true;
 	}
 	
-	void delete(T point) {
-		tries.get(quadrantOf(point)).delete(point);
+	/**
+	 * Offers the child Tries to the given queue of a nearest neighbour search.
+	 * @param queue (NearestQueue of "T extends HasPoint")
+	 */
+	void expandNearest(NearestQueue<T> queue) {
+		for (Trie<T> trie : tries) {
+			queue.offer(trie);
+		}
 		return;
 	}
 	
+	/**
+	 * Deletes a point from the quadrant of the given coordinates. <br>
+	 * Afterwards, if the node has only leaves holding together less points than the capacity, it collapses into a single leaf.
+	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
+	 * @return The trie without the point, either this node or the leaf replacing it.
+	 */
+	Trie<T> delete(T point, double x, double y) {
+		NodeTrie<T> node = writable();
+		Quadrant quadrant = quadrantOf(x,y);
+		node.tries[quadrant.ordinal()] = node.tries[quadrant.ordinal()].delete(point,x,y);
+		return node.collapse();
+	}
+	
+	/**
+	 * Inserts a range of a batch of points, partitioning it by quadrant and passing each part to its child Trie,
+	 * so that the batch descends the tree once instead of once per point. <br>
+	 * The points must be inside the range of this node.
+	 * @param batch (Batch of T extends HasPoint)
+	 * @param from first position of the range, inclusive (int)
+	 * @param to last position of the range, exclusive (int)
+	 * @return The trie with the newly inserted points.
+	 */
+	Trie<T> insertAll(Batch<T> batch, int from, int to) {
+		if (from == to)
+			return this;
+		NodeTrie<T> node = writable();
+		int[] bounds = partition(batch, from, to);
+		for (int i = 0; i < PARTITION_ORDER.length; i++) {
+			int quadrant = PARTITION_ORDER[i].ordinal();
+			if (bounds[i] < bounds[i+1])
+				node.tries[quadrant] = node.tries[quadrant].insertAll(batch, bounds[i], bounds[i+1]);
+		}
+		return node;
+	}
+	
+	/**
+	 * Deletes a range of a batch of points, partitioning it by quadrant and passing each part to its child Trie. <br>
+	 * Afterwards, as in delete, the node may collapse into a single leaf.
+	 * @param batch (Batch of T extends HasPoint)
+	 * @param from first position of the range, inclusive (int)
+	 * @param to last position of the range, exclusive (int)
+	 * @return The trie without the points, either this node or the leaf replacing it.
+	 */
+	Trie<T> deleteAll(Batch<T> batch, int from, int to) {
+		if (from == to)
+			return this;
+		NodeTrie<T> node = writable();
+		int[] bounds = partition(batch, from, to);
+		for (int i = 0; i < PARTITION_ORDER.length; i++) {
+			int quadrant = PARTITION_ORDER[i].ordinal();
+			if (bounds[i] < bounds[i+1])
+				node.tries[quadrant] = node.tries[quadrant].deleteAll(batch, bounds[i], bounds[i+1]);
+		}
+		return node.collapse();
+	}
+	
+	/**
+	 * Partitions a range of a batch in place by the quadrant of its points, 
+	 * in the order of PARTITION_ORDER: first by x, then each half by y, as quadrantOf does.
+	 * @param batch (Batch of T extends HasPoint)
+	 * @param from first position of the range, inclusive (int)
+	 * @param to last position of the range, exclusive (int)
+	 * @return The positions where the part of each quadrant starts, followed by the end of the range (int[])
+	 */
+	private int[] partition(Batch<T> batch, int from, int to) {
+		int east = batch.partition(batch.xs, from, to, middleX);
+		int westNorth = batch.partition(batch.ys, from, east, middleY);
+		int eastNorth = batch.partition(batch.ys, east, to, middleY);
+		return new int[] { from, westNorth, east, eastNorth, to };
+	}
+	
+	/**
+	 * Collapses this node into a single leaf, with the same range and depth, if all its children are leaves
+	 * holding together less points than the capacity. Otherwise the node is kept.
+	 * @return The leaf replacing this node, or this node.
+	 */
+	private Trie<T> collapse() {
+		int size = 0;
+		for (Trie<T> trie : tries) {
+			if (trie instanceof NodeTrie)
+				return this;
+			size += trie.size();
+		}
+		if (size >= settings.capacity)
+			return this;
+		Trie<T> leaf = settings.newLeaf(topLeftX, topLeftY, bottomRightX, bottomRightY, depth);
+		for (Trie<T> trie : tries) {
+			trie.visitAll(point -> { leaf.insert(point); return true; });
+		}
+		return leaf;
+	}
+	
+	/**
+	 * Recursively counts this node and all the Tries below it.
+	 * @return The number of Tries (int)
+	 */
+	int countTries() {
+		int count = 1;
+		for (Trie<T> trie : tries) {
+			count += trie.countTries();
+		}
+		return count;
+	}
+	
+	/**
+	 * Recursively finds the depth of the deepest leaf below this node.
+	 * @return The depth of the deepest leaf (int)
+	 */
+	int deepest() {
+		int deepest = depth;
+		for (Trie<T> trie : tries) {
+			deepest = Math.max(deepest, trie.deepest());
+		}
+		return deepest;
+	}
+	
+	/**
+	 * Recursively counts the points below this node.
+	 * @return The number of points (int)
+	 */
+	int size() {
+		int size = 0;
+		for (Trie<T> trie : tries) {
+			size += trie.size();
+		}
+		return size;
+	}
+	
 	T find(T point) {
-		return tries.get(quadrantOf(point)).find(point);
+		return tries[quadrantOf(point.getX(),point.getY()).ordinal()].find(point);
 	}
 	
 	/**
@@ -80,10 +314,11 @@ public class NodeTrie<T extends HasPoint> extends Trie<T> {
 		if (!checkRange(point)) {
 			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
 		}
-		Quadrant quadrant = quadrantOf(point);
-		Trie<T> temp = tries.get(quadrant).insert(point);
-		tries.put(quadrant,temp);
-		return this;
+		NodeTrie<T> node = writable();
+		Quadrant quadrant = quadrantOf(point.getX(),point.getY());
+		Trie<T> temp = node.tries[quadrant.ordinal()].insert(point);
+		node.tries[quadrant.ordinal()] = temp;
+		return node;
 	}
 	
 	/**
@@ -96,24 +331,56 @@ public class NodeTrie<T extends HasPoint> extends Trie<T> {
 		if (!checkRange(point)) {
 			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
 		}
-		return tries.get(quadrantOf(point)).insertReplace(point);
+		NodeTrie<T> node = writable();
+		Quadrant quadrant = quadrantOf(point.getX(),point.getY());
+		node.tries[quadrant.ordinal()] = node.tries[quadrant.ordinal()].insertReplace(point);
+		return node;
+	}
+	
+	/**
+	 * Moves a point whose coordinates were (oldX,oldY) to its current coordinates. <br>
+	 * If both positions fall in the same quadrant the move is delegated to that child,
+	 * otherwise the point is deleted from the old quadrant and inserted in the new one.
+	 * Only the leaves containing the old and the new positions are touched. <br>
+	 * Throws PointOutOfBoundException if the point's current position doesn't match with the current Trie's range.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 * @return The trie with the moved point.
+	 */
+	Trie<T> move(T point, double oldX, double oldY) throws PointOutOfBoundException {
+		if (!checkRange(point)) {
+			throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+		}
+		NodeTrie<T> node = writable();
+		Quadrant from = quadrantOf(oldX,oldY);
+		Quadrant to = quadrantOf(point.getX(),point.getY());
+		if (from == to) {
+			node.tries[to.ordinal()] = node.tries[to.ordinal()].move(point,oldX,oldY);
+		}
+		else {
+			node.tries[from.ordinal()] = node.tries[from.ordinal()].delete(point,oldX,oldY);
+			node.tries[to.ordinal()] = node.tries[to.ordinal()].insert(point);
+		}
+		return node;
 	}
 
 	/**
-	 * Returns the quadrant of the given point in relation to the current range. <br>
+	 * Returns the quadrant of the given coordinates in relation to the current range. <br>
 	 * Throws PointOutOfBoundException if it doesn't find a suitable quadrant.
-	 * @param point (T extends HasPoint)
+	 * @param x (double)
+	 * @param y (double)
 	 * @return The point's quadrant in a Trie.Quadrant representation
 	 */
-	private Trie.Quadrant quadrantOf(T point) throws PointOutOfBoundException {
-		if (point.getX() <= (bottomRightX + topLeftX)/2) {
-			if (point.getY() <= (topLeftY + bottomRightY)/2)
+	private Trie.Quadrant quadrantOf(double x, double y) throws PointOutOfBoundException {
+		if (x <= middleX) {
+			if (y <= middleY)
 				return Trie.Quadrant.SW;
 			else
 				return Trie.Quadrant.NW;
 		}
-		else if (point.getX() > (bottomRightX + topLeftX)/2) {
-			if (point.getY() <= (topLeftY + bottomRightY)/2)
+		else if (x > middleX) {
+			if (y <= middleY)
 				return Trie.Quadrant.SE;
 			else
 				return Trie.Quadrant.NE;
@@ -123,6 +390,15 @@ public class NodeTrie<T extends HasPoint> extends Trie<T> {
 
 	}
 	
+	/**
+	 * Creates an empty array for the four child Tries, one per quadrant.
+	 * @return The array of child Tries
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends HasPoint> Trie<T>[] newTries() {
+		return (Trie<T>[]) new Trie<?>[Trie.Quadrant.values().length];
+	}
+	
 	@Override
 	public String toString() {
 		return "NodeTrie";
@@ -7,8 +7,9 @@ import java.lang.RuntimeException;
  * <br>
  * This class implements a exception to be called when a point is outside of the permitted bounds.<br>
  * It extends RuntimeException and implements Serializable.
- * One of the constructors accepts a message (String) and displays it on the standard output.
+ * The message and cause, if given, are kept by the exception, as in RuntimeException, for the caller to report.
  * @see java.io.Serializable Serializable
+ * @see rsa.quad.PointQuadtree#tryInsert(HasPoint) tryInsert, that reports points outside of the bounds without an exception
  * @author João Lucas Pires, Sara Ferreira
  */
 public class PointOutOfBoundException extends RuntimeException implements Serializable {
@@ -18,6 +19,14 @@ public class PointOutOfBoundException extends RuntimeException implements Serial
 	public PointOutOfBoundException() {}
 	
 	public PointOutOfBoundException(String message) {
-		System.out.println(message);
+		super(message);
+	}
+	
+	public PointOutOfBoundException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+	public PointOutOfBoundException(Throwable cause) {
+		super(cause);
 	}
 }
@@ -1,6 +1,15 @@
 package rsa.quad;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * <b>Class PointQuadTree</b>
@@ -8,36 +17,338 @@ import java.util.Set;
  * This class represents the entry point to a QuadTree implementation in 2D. (Facade Design Pattern)<br>
  * Most methods call similar methods from another classes. (Composite Design Pattern)<br>
  * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.SpatialIndex SpatialIndex interface
  * @see rsa.quad.HasPoint HasPoint interface
  * @author João Lucas Pires, Sara Ferreira
  */
-public class PointQuadtree<T extends HasPoint> {
+public class PointQuadtree<T extends HasPoint> implements SpatialIndex<T> {
 		
 	private double topLeftX;
 	private double topLeftY;
 	private double bottomRightX;
 	private double bottomRightY;
-	private NodeTrie<T> root;
+	private Trie<T> root;
+	private final boolean readOnly;
+	private boolean autoGrow;
 	
+	/**
+	 * Constructs a quadtree whose leaves hold the default capacity of points.
+	 * @see rsa.quad.Trie#setCapacity(int)
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 */
 	public PointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
+		this(topLeftX,topLeftY,bottomRightX,bottomRightY,Trie.getCapacity());
+	}
+	
+	/**
+	 * Constructs a quadtree whose leaves hold up to the given capacity of points before splitting.<br>
+	 * Large capacities suit dense data, small ones suit sparse data.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param capacity (int)
+	 */
+	public PointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int capacity) {
+		this(topLeftX,topLeftY,bottomRightX,bottomRightY,capacity,Trie.DEFAULT_MAX_DEPTH);
+	}
+	
+	/**
+	 * Constructs a quadtree with the given leaf capacity and maximum depth.<br>
+	 * Leaves at the maximum depth don't split, holding more points than their capacity instead. 
+	 * This bounds the depth of the tree when many points share (nearly) the same coordinates.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param capacity (int)
+	 * @param maxDepth (int)
+	 */
+	public PointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int capacity, int maxDepth) {
+		this(topLeftX,topLeftY,bottomRightX,bottomRightY,capacity,maxDepth,Trie.LeafKind.SET);
+	}
+	
+	/**
+	 * Constructs a quadtree with the given leaf capacity, maximum depth and kind of leaves.<br>
+	 * With ARRAY leaves the coordinates are kept in arrays of doubles, which speeds up scanning large leaves;
+	 * points must then be moved with move (or deleted and inserted again) when their coordinates change.
+	 * @see rsa.quad.Trie.LeafKind LeafKind
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param capacity (int)
+	 * @param maxDepth (int)
+	 * @param leafKind (LeafKind)
+	 */
+	public PointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int capacity, int maxDepth, Trie.LeafKind leafKind) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity of a quadtree must be positive!");
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("The maximum depth of a quadtree must be positive!");
+		if (leafKind == null)
+			throw new IllegalArgumentException("The kind of leaves of a quadtree must be given!");
 		this.topLeftX = topLeftX;
 		this.topLeftY = topLeftY;
 		this.bottomRightX = bottomRightX;
 		this.bottomRightY = bottomRightY;
-		this.root = new NodeTrie<T>(this.topLeftX,this.topLeftY,this.bottomRightX,this.bottomRightY);
+		this.root = new NodeTrie<T>(this.topLeftX,this.topLeftY,this.bottomRightX,this.bottomRightY,new Trie.Settings(capacity,maxDepth,leafKind),0);
+		this.readOnly = false;
+	}
+	
+	/**
+	 * Constructs a read-only quadtree sharing the tries of the given one.
+	 * @param other (PointQuadtree of T extends HasPoint)
+	 */
+	private PointQuadtree(PointQuadtree<T> other) {
+		this.topLeftX = other.topLeftX;
+		this.topLeftY = other.topLeftY;
+		this.bottomRightX = other.bottomRightX;
+		this.bottomRightY = other.bottomRightY;
+		this.root = other.root;
+		this.readOnly = true;
+	}
+	
+	/**
+	 * Returns an immutable snapshot of the current state of the quadtree, in constant time.<br>
+	 * The snapshot shares all its tries with this quadtree. Afterwards, this quadtree copies the tries in the path
+	 * to each leaf it changes instead of changing them in place (path copying), so the snapshot never changes.
+	 * Hence queries on the snapshot neither block nor are blocked by updates to this quadtree.<br>
+	 * The snapshot isn't published safely by itself: to query it from another thread, hand it over through a safe channel,
+	 * such as a volatile field, a concurrent collection, a lock or Thread.start. 
+	 * Nothing it reaches is written after it is taken, so no further synchronization is needed.<br>
+	 * Points themselves are shared, not copied: with SET leaves a point whose coordinates change 
+	 * is searched on the snapshot by its current coordinates, with ARRAY leaves by those it had when the snapshot was taken.<br>
+	 * The snapshot is read-only: its insert, insertReplace, delete and move methods throw UnsupportedOperationException.
+	 * @return PointQuadtree of T extends HasPoint
+	 */
+	public PointQuadtree<T> snapshot() {
+		PointQuadtree<T> snapshot = new PointQuadtree<T>(this);
+		if (!readOnly)
+			root.settings.epoch++;
+		return snapshot;
+	}
+	
+	/**
+	 * Checks that this quadtree isn't a snapshot, before changing it.<br>
+	 * Throws UnsupportedOperationException if it is.
+	 */
+	private void checkWritable() {
+		if (readOnly)
+			throw new UnsupportedOperationException("A snapshot of a quadtree can't be changed!");
+	}
+	
+	/**
+	 * Checks if the quadtree grows to hold points outside its range.
+	 * @return true if it grows, false if it throws PointOutOfBoundException.
+	 */
+	public boolean isAutoGrow() {
+		return autoGrow;
+	}
+	
+	/**
+	 * Sets whether the quadtree grows to hold points outside its range, instead of throwing PointOutOfBoundException.
+	 * By default it doesn't grow.<br>
+	 * The tree grows by doubling its range towards the point, as many times as needed, 
+	 * with the current root as a quadrant of the new one, so the tries already built are kept.
+	 * @param autoGrow (boolean)
+	 */
+	public void setAutoGrow(boolean autoGrow) {
+		this.autoGrow = autoGrow;
+	}
+	
+	/**
+	 * Returns the current range of the quadtree, that is larger than the one it was constructed with if it grew.
+	 * @return topLeftX, topLeftY, bottomRightX and bottomRightY (double[])
+	 */
+	public double[] getBounds() {
+		return new double[] { topLeftX, topLeftY, bottomRightX, bottomRightY };
+	}
+	
+	/**
+	 * Grows the quadtree, if it is set to grow, until its range includes the given point.
+	 * @param point (T extends HasPoint)
+	 */
+	private void include(T point) {
+		if (autoGrow)
+			grow(point.getX(), point.getY());
+	}
+	
+	/**
+	 * Grows the range of the quadtree until it includes the given coordinates, doubling it towards them.<br>
+	 * Each time, the current root becomes a quadrant of a new root, next to three empty leaves, so no point is reinserted
+	 * except those on the edges of the old root that the new root assigns to another quadrant:
+	 * points on the middle lines belong to the west and south quadrants.<br>
+	 * The depths of the tries don't change: the new roots are at negative depths, 
+	 * so the maximum depth is still counted from the original root.
+	 * @param x (double)
+	 * @param y (double)
+	 */
+	private void grow(double x, double y) {
+		while (x < topLeftX || x > bottomRightX || y < bottomRightY || y > topLeftY) {
+			boolean west = x < topLeftX;
+			boolean south = y < bottomRightY;
+			double width = bottomRightX - topLeftX;
+			double height = topLeftY - bottomRightY;
+			double middleX = west ? topLeftX : bottomRightX;
+			double middleY = south ? bottomRightY : topLeftY;
+			
+			List<T> relocated = new ArrayList<T>();
+			if (west)
+				root.visitInRect(middleX, bottomRightY, middleX, topLeftY, relocated::add);
+			if (south)
+				root.visitInRect(topLeftX, middleY, bottomRightX, middleY, point -> { 
+					if (!west || point.getX() != middleX)
+						relocated.add(point);
+					return true;
+				});
+			for (T point : relocated) {
+				root = root.delete(point);
+			}
+			
+			if (west)
+				topLeftX -= width;
+			else
+				bottomRightX += width;
+			if (south)
+				bottomRightY -= height;
+			else
+				topLeftY += height;
+			
+			Trie.Settings settings = root.settings;
+			int depth = root.depth;
+			Trie<T>[] tries = NodeTrie.newTries();
+			tries[Trie.Quadrant.NW.ordinal()] = settings.newLeaf(topLeftX, topLeftY, middleX, middleY, depth);
+			tries[Trie.Quadrant.NE.ordinal()] = settings.newLeaf(middleX, topLeftY, bottomRightX, middleY, depth);
+			tries[Trie.Quadrant.SW.ordinal()] = settings.newLeaf(topLeftX, middleY, middleX, bottomRightY, depth);
+			tries[Trie.Quadrant.SE.ordinal()] = settings.newLeaf(middleX, middleY, bottomRightX, bottomRightY, depth);
+			Trie.Quadrant quadrant = west ? (south ? Trie.Quadrant.NE : Trie.Quadrant.SE) : (south ? Trie.Quadrant.NW : Trie.Quadrant.SW);
+			tries[quadrant.ordinal()] = root;
+			
+			root = new NodeTrie<T>(topLeftX, topLeftY, bottomRightX, bottomRightY, middleX, middleY, settings, depth - 1, tries);
+			for (T point : relocated) {
+				root = root.insert(point);
+			}
+		}
 	}
 	
 	public T find(T point) {
 		return root.find(point);
 	}
 	
+	/**
+	 * Inserts the given point.<br>
+	 * If the point isn't inside the tree's range, the tree grows to include it if it is set to grow,
+	 * otherwise it throws PointOutOfBoundException.
+	 * @param point (T extends HasPoint)
+	 */
 	public void insert(T point) {
-		root.insert(point);
+		checkWritable();
+		include(point);
+		root = root.insert(point);
 		return;
 	}
 	
+	/**
+	 * Inserts the given point if it is inside the tree's range, without throwing PointOutOfBoundException otherwise.<br>
+	 * Points outside the range are rejected before any trie is visited, and no exception is created for them,
+	 * so callers filtering bad coordinates don't pay for a stack trace.
+	 * If the tree is set to grow, it grows to include the point instead.
+	 * @param point (T extends HasPoint)
+	 * @return true if the point was inserted, false if it is outside the tree's range.
+	 */
+	public boolean tryInsert(T point) {
+		checkWritable();
+		include(point);
+		if (!root.checkRange(point))
+			return false;
+		root = root.insert(point);
+		return true;
+	}
+	
+	/**
+	 * Inserts all the given points at once, rebuilding the tree top-down in a single pass.<br>
+	 * The points already in the tree are kept, and loaded once if given again.
+	 * All the points are partitioned by quadrant at each node until they fit in a leaf,
+	 * hence no leaf splits and the range of each point is checked only once. Large partitions are built in parallel
+	 * on the common fork/join pool.<br>
+	 * Throws PointOutOfBoundException, before changing the tree, if any point isn't inside the tree's range.
+	 * @param points (Collection of T extends HasPoint)
+	 */
+	public void bulkLoad(Collection<? extends T> points) throws PointOutOfBoundException {
+		checkWritable();
+		List<T> all = new ArrayList<T>(points.size());
+		Set<T> kept = Collections.newSetFromMap(new IdentityHashMap<T,Boolean>());
+		root.visitAll(kept::add);
+		for (T point : points) {
+			include(point);
+			if (!root.checkRange(point))
+				throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+			if (!kept.contains(point))
+				all.add(point);
+		}
+		all.addAll(kept);
+		
+		T[] array = toArray(all);
+		TrieBuilder<T> builder = new TrieBuilder<T>(topLeftX,topLeftY,bottomRightX,bottomRightY,root.settings,root.depth,array,0,array.length);
+		root = ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(builder::buildNode));
+	}
+	
+	/**
+	 * Inserts a batch of points in a single walk of the tree: the batch is partitioned by quadrant at each node,
+	 * and each part descends only into the child Trie of its quadrant.<br>
+	 * Throws PointOutOfBoundException, before changing the tree, if any point isn't inside the tree's range.
+	 * @param points (Collection of T extends HasPoint)
+	 */
+	public void insertAll(Collection<? extends T> points) throws PointOutOfBoundException {
+		checkWritable();
+		T[] array = toArray(points);
+		double[] xs = new double[array.length];
+		double[] ys = new double[array.length];
+		for (int i = 0; i < array.length; i++) {
+			include(array[i]);
+			if (!root.checkRange(array[i]))
+				throw new PointOutOfBoundException("This point doesn't belong to this trie or subtries!");
+			xs[i] = array[i].getX();
+			ys[i] = array[i].getY();
+		}
+		root = root.insertAll(new Batch<T>(array, xs, ys), 0, array.length);
+	}
+	
+	/**
+	 * Deletes a batch of points, each one looked for at its current coordinates, in a single walk of the tree.<br>
+	 * Nodes left with less points than the capacity collapse back into a single leaf.
+	 * @param points (Collection of T extends HasPoint)
+	 */
+	public void deleteAll(Collection<? extends T> points) {
+		checkWritable();
+		T[] array = toArray(points);
+		double[] xs = new double[array.length];
+		double[] ys = new double[array.length];
+		for (int i = 0; i < array.length; i++) {
+			xs[i] = array[i].getX();
+			ys[i] = array[i].getY();
+		}
+		root = root.deleteAll(new Batch<T>(array, xs, ys), 0, array.length);
+	}
+	
+	/**
+	 * Copies a collection of points to an array, that batch operations reorder in place.
+	 * @param points (Collection of T extends HasPoint)
+	 * @return array of T extends HasPoint
+	 */
+	@SuppressWarnings("unchecked")
+	private T[] toArray(Collection<? extends T> points) {
+		return (T[]) points.toArray(new HasPoint[points.size()]);
+	}
+	
 	public void insertReplace(T point) {
-		root.insertReplace(point);
+		checkWritable();
+		include(point);
+		root = root.insertReplace(point);
 		return;
 	}
 
@@ -47,8 +358,128 @@ public class PointQuadtree<T extends HasPoint> {
 		return set;
 	}
 	
+	/**
+	 * Returns the points inside the given rectangle, boundaries included.<br>
+	 * Tries whose range doesn't intersect the rectangle are not visited.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @return Set of points inside the rectangle.
+	 */
+	public Set<T> findInRect(double minX, double minY, double maxX, double maxY) {
+		Set<T> set = new HashSet<T>();
+		root.visitInRect(minX,minY,maxX,maxY,all(set::add));
+		return set;
+	}
+	
+	/**
+	 * Streams the points inside the given rectangle, boundaries included, to the given visitor.<br>
+	 * Unlike findInRect, no collection is created to hold them.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public void forEachInRect(double minX, double minY, double maxX, double maxY, Consumer<? super T> visitor) {
+		root.visitInRect(minX,minY,maxX,maxY,all(visitor));
+	}
+	
+	/**
+	 * Visits the points inside the given rectangle, boundaries included, until the visitor returns false.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		return root.visitInRect(minX,minY,maxX,maxY,visitor);
+	}
+	
+	/**
+	 * Streams the points near the given circle to the given visitor.<br>
+	 * Unlike findNear, no collection is created to hold them.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public void forEachNear(double x, double y, double radius, Consumer<? super T> visitor) {
+		root.visitNear(x,y,radius,all(visitor));
+	}
+	
+	/**
+	 * Visits the points near the given circle until the visitor returns false.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor) {
+		return root.visitNear(x,y,radius,visitor);
+	}
+	
+	/**
+	 * Returns the k points nearest to the given coordinates, sorted by increasing distance.<br>
+	 * The search is best-first: tries are expanded in the order of their distance to the coordinates,
+	 * and it stops as soon as k points are found, without collecting the remaining ones.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param k maximum number of points (int)
+	 * @return List of the nearest points, with less than k elements if the tree is smaller.
+	 */
+	public List<T> findNearest(double x, double y, int k) {
+		NearestQueue<T> queue = new NearestQueue<T>(x,y);
+		queue.offer(root);
+		return queue.nearest(k);
+	}
+	
+	/**
+	 * Deletes the given point.<br>
+	 * Nodes left with less points than the capacity collapse back into a single leaf.
+	 * @param point (T extends HasPoint)
+	 */
 	public void delete(T point) {
-		root.delete(point);
+		checkWritable();
+		root = root.delete(point);
+	}
+	
+	/**
+	 * Reindexes a point whose coordinates changed from (oldX,oldY) to its current ones.<br>
+	 * Only the leaves of the old and new positions are updated, avoiding a full delete and reinsert.<br>
+	 * If the tree is set to grow and the point left its range, it is deleted at its old position before the tree grows,
+	 * so that it isn't taken for a point on an edge of the old root.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 */
+	public void move(T point, double oldX, double oldY) {
+		checkWritable();
+		if (autoGrow && !root.checkRange(point)) {
+			root = root.delete(point, oldX, oldY);
+			grow(point.getX(), point.getY());
+		}
+		root = root.move(point, oldX, oldY);
+	}
+	
+	/**
+	 * Returns the number of tries (nodes and leaves) in the tree.
+	 * @return The node count (int)
+	 */
+	public int getNodeCount() {
+		return root.countTries();
+	}
+	
+	/**
+	 * Returns the depth of the tree, the number of levels from the root to the deepest leaf.
+	 * @return The depth (int)
+	 */
+	public int getDepth() {
+		return root.deepest() - root.depth;
 	}
 	
 	public Set<T> getAll() {
@@ -57,4 +488,31 @@ public class PointQuadtree<T extends HasPoint> {
 		return set;
 	}
 	
+	/**
+	 * Streams all the points in the tree to the given visitor.<br>
+	 * Unlike getAll, no collection is created to hold them.
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public void forEach(Consumer<? super T> visitor) {
+		root.visitAll(all(visitor));
+	}
+	
+	/**
+	 * Visits all the points in the tree until the visitor returns false.
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public boolean visitAll(Predicate<? super T> visitor) {
+		return root.visitAll(visitor);
+	}
+	
+	/**
+	 * Adapts a consumer to a visitor that never stops the traversal.
+	 * @param consumer (Consumer of T extends HasPoint)
+	 * @return Predicate of T extends HasPoint, always true.
+	 */
+	private static <T> Predicate<T> all(Consumer<? super T> consumer) {
+		return point -> { consumer.accept(point); return true; };
+	}
+	
 }
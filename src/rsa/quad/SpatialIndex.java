@@ -0,0 +1,123 @@
+package rsa.quad;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * <b>Interface SpatialIndex</b>
+ * <br>
+ * The type implementing this interface indexes points by their coordinates inside a fixed 2D range,
+ * and finds them by exact coordinates, inside a circle or inside a rectangle.<br>
+ * Points are indexed at the coordinates they have when inserted; after their coordinates change,
+ * they must be reindexed with move, given their old coordinates.<br>
+ * Inserting a point outside the range throws a PointOutOfBoundException.<br>
+ * This interface is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.PointQuadtree PointQuadtree
+ * @see rsa.quad.MortonIndex MortonIndex
+ * @see rsa.quad.GridIndex GridIndex
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public interface SpatialIndex<T extends HasPoint> {
+
+	/**
+	 * <b>Enum Kind</b>
+	 * <br>Implementations of the spatial index, to choose one by configuration.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	public enum Kind {
+		/** PointQuadtree, a tree of nodes and leaves. */
+		QUADTREE,
+		/** MortonIndex, points sorted by Z-order code in arrays. */
+		MORTON,
+		/** GridIndex, points hashed by cell of a uniform grid. */
+		GRID;
+	}
+
+	/**
+	 * Returns a point with the same coordinates as the given one.
+	 * @param point (T extends HasPoint)
+	 * @return The point found, or null if there is none.
+	 */
+	public abstract T find(T point);
+
+	/**
+	 * Inserts the given point at its current coordinates.
+	 * @param point (T extends HasPoint)
+	 */
+	public abstract void insert(T point) throws PointOutOfBoundException;
+
+	/**
+	 * Deletes the given point, looking for it at its current coordinates.
+	 * @param point (T extends HasPoint)
+	 */
+	public abstract void delete(T point);
+
+	/**
+	 * Reindexes a point whose coordinates changed from (oldX,oldY) to its current ones.
+	 * @param point (T extends HasPoint)
+	 * @param oldX (double)
+	 * @param oldY (double)
+	 */
+	public abstract void move(T point, double oldX, double oldY) throws PointOutOfBoundException;
+
+	/**
+	 * Returns the points inside the circle of given center and radius, boundary included.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @return Set of T extends HasPoint
+	 */
+	public abstract Set<T> findNear(double x, double y, double radius);
+
+	/**
+	 * Streams the points inside the circle of given center and radius, boundary included, to the given visitor.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public abstract void forEachNear(double x, double y, double radius, Consumer<? super T> visitor);
+
+	/**
+	 * Visits the points inside the circle of given center and radius, boundary included, until the visitor returns false.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param visitor (Predicate of T extends HasPoint)
+	 * @return false if the visitor stopped the traversal.
+	 */
+	public abstract boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor);
+
+	/**
+	 * Returns the points inside the given rectangle, boundaries included.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @return Set of T extends HasPoint
+	 */
+	public abstract Set<T> findInRect(double minX, double minY, double maxX, double maxY);
+
+	/**
+	 * Streams the points inside the given rectangle, boundaries included, to the given visitor.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public abstract void forEachInRect(double minX, double minY, double maxX, double maxY, Consumer<? super T> visitor);
+
+	/**
+	 * Returns all the points in the index.
+	 * @return Set of T extends HasPoint
+	 */
+	public abstract Set<T> getAll();
+
+	/**
+	 * Streams all the points in the index to the given visitor.
+	 * @param visitor (Consumer of T extends HasPoint)
+	 */
+	public abstract void forEach(Consumer<? super T> visitor);
+}
@@ -1,5 +1,6 @@
 package rsa.quad;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.lang.String;
 import java.io.Serializable;
 import java.lang.Math;
@@ -28,25 +29,145 @@ public abstract class Trie<T extends HasPoint> {
 			SE,
 			SW;		
 		}
+		
+		/**
+		 * <b>Enum LeafKind</b>
+		 * <br>Identifies how the leaves of a quadtree store their points.<br>
+		 * SET keeps them in a hash set (LeafTrie), ARRAY keeps their coordinates in parallel arrays of doubles 
+		 * next to an array of points (ArrayLeafTrie), so that scanning a leaf doesn't call the points' methods.
+		 * @author João Lucas Pires, Sara Ferreira
+		 */
+		public enum LeafKind {
+			SET,
+			ARRAY;
+		}
+		
+		/**
+		 * <b>Class Settings</b>
+		 * <br>Holds the parameters shared by all the Tries of a quadtree.<br>
+		 * They are set when the root is created and carried down to every Trie created when a leaf splits.<br>
+		 * The epoch is the version of the quadtree being changed: Tries of older epochs are shared with snapshots,
+		 * hence they are copied before being changed.
+		 * @author João Lucas Pires, Sara Ferreira
+		 */
+		static class Settings {
+			final int capacity;
+			final int maxDepth;
+			final LeafKind leafKind;
+			int epoch;
+			
+			/**
+			 * @param capacity points a leaf holds before splitting (int)
+			 * @param maxDepth depth below which leaves don't split, overflowing their capacity instead (int)
+			 */
+			Settings(int capacity, int maxDepth) {
+				this(capacity, maxDepth, LeafKind.SET);
+			}
+			
+			/**
+			 * @param capacity points a leaf holds before splitting (int)
+			 * @param maxDepth depth below which leaves don't split, overflowing their capacity instead (int)
+			 * @param leafKind storage of the points in the leaves (LeafKind)
+			 */
+			Settings(int capacity, int maxDepth, LeafKind leafKind) {
+				this.capacity = capacity;
+				this.maxDepth = maxDepth;
+				this.leafKind = leafKind;
+			}
+			
+			/**
+			 * Creates an empty leaf of the kind given by these settings.
+			 * @param topLeftX (double)
+			 * @param topLeftY (double)
+			 * @param bottomRightX (double)
+			 * @param bottomRightY (double)
+			 * @param depth (int)
+			 * @return The new leaf
+			 */
+			<T extends HasPoint> Trie<T> newLeaf(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int depth) {
+				switch (leafKind) {
+					case ARRAY:
+						return new ArrayLeafTrie<T>(topLeftX, topLeftY, bottomRightX, bottomRightY, this, depth);
+					default:
+						return new LeafTrie<T>(topLeftX, topLeftY, bottomRightX, bottomRightY, this, depth);
+				}
+			}
+		}
 	
 	protected double bottomRightX;
 	protected double bottomRightY;
 	protected double topLeftX;
 	protected double topLeftY;
-	private static int capacity;
+	protected Settings settings;
+	protected int depth;
+	protected int epoch;
 	private final static int DEFAULT_CAPACITY = 10;
+	final static int DEFAULT_MAX_DEPTH = 32;
+	private static int defaultCapacity = DEFAULT_CAPACITY;
 	
+	/**
+	 * Constructs a root Trie whose leaves hold the default capacity of points.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 */
 	protected Trie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
+		this(topLeftX, topLeftY, bottomRightX, bottomRightY, new Settings(Trie.getCapacity(), DEFAULT_MAX_DEPTH), 0);
+	}
+	
+	/**
+	 * Constructs a Trie at the given depth of a quadtree with the given settings.<br>
+	 * The settings are carried down to every Trie created below this one, and the Trie belongs to their current epoch.
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param settings (Settings)
+	 * @param depth (int)
+	 */
+	protected Trie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, Settings settings, int depth) {
 		this.topLeftX = topLeftX;
 		this.topLeftY = topLeftY;
 		this.bottomRightX = bottomRightX;
 		this.bottomRightY = bottomRightY;
-		Trie.capacity = DEFAULT_CAPACITY;
+		this.settings = settings;
+		this.depth = depth;
+		this.epoch = settings.epoch;
+	}
+	
+	/**
+	 * Checks if this Trie may be changed in place, i.e. if it isn't shared with a snapshot of the quadtree.
+	 * @return true if the Trie belongs to the current epoch.
+	 */
+	protected boolean isWritable() {
+		return epoch == settings.epoch;
 	}
 	
-	abstract void collectAll(Set<T> points);	
+	/**
+	 * Collects all the points of the Trie and places them in the given Set.
+	 * @param points (Set of "T extends HasPoint")
+	 */
+	void collectAll(Set<T> points) {
+		visitAll(point -> { points.add(point); return true; });
+	}
 	
-	abstract void collectNear(double x,double y, double radius, Set<T> points);
+	/**
+	 * Collects the points of the Trie that are near the specified circle and places them in the given Set.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @param points (Set of "T extends HasPoint")
+	 */
+	void collectNear(double x,double y, double radius, Set<T> points) {
+		visitNear(x, y, radius, point -> { points.add(point); return true; });
+	}
+	
+	abstract boolean visitAll(Predicate<? super T> visitor);
+	
+	abstract boolean visitNear(double x, double y, double radius, Predicate<? super T> visitor);
+	
+	abstract boolean visitInRect(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor);
 	
 	/**
 	 * Checks if a given point is inside the current Trie's 2D range.
@@ -59,12 +180,33 @@ public abstract class Trie<T extends HasPoint> {
 		return false;
 	}
 	
-	abstract void delete(T point);
+	/**
+	 * Deletes the given point, looking for it at its current coordinates.
+	 * @param point (T extends HasPoint)
+	 * @return The trie without the point, that may be a collapsed version of this one.
+	 */
+	Trie<T> delete(T point) {
+		return delete(point, point.getX(), point.getY());
+	}
+	
+	abstract Trie<T> delete(T point, double x, double y);
+	
+	abstract int countTries();
+	
+	abstract int deepest();
+	
+	abstract int size();
+	
+	abstract void expandNearest(NearestQueue<T> queue);
 	
 	abstract T find(T point);
 	
+	/**
+	 * Returns the default capacity, used by Tries constructed without an explicit capacity.
+	 * @return The default capacity. (int)
+	 */
 	static int getCapacity() {
-		return capacity;
+		return defaultCapacity;
 	}
 	
 	/**
@@ -81,8 +223,44 @@ public abstract class Trie<T extends HasPoint> {
 	
 	abstract Trie<T> insert(T point);
 	
+	/**
+	 * Inserts a range of a batch of points at their coordinates in the batch.<br>
+	 * Leaves insert them one by one; once a leaf splits, the rest of the range is inserted by the new node.
+	 * @param batch (Batch of T extends HasPoint)
+	 * @param from first position of the range, inclusive (int)
+	 * @param to last position of the range, exclusive (int)
+	 * @return The trie with the newly inserted points.
+	 */
+	Trie<T> insertAll(Batch<T> batch, int from, int to) {
+		Trie<T> trie = this;
+		for (int i = from; i < to; i++) {
+			trie = trie.insert(batch.points[i]);
+			if (trie instanceof NodeTrie)
+				return trie.insertAll(batch, i+1, to);
+		}
+		return trie;
+	}
+	
+	/**
+	 * Deletes a range of a batch of points, looking for them at their coordinates in the batch.<br>
+	 * Leaves delete them one by one.
+	 * @param batch (Batch of T extends HasPoint)
+	 * @param from first position of the range, inclusive (int)
+	 * @param to last position of the range, exclusive (int)
+	 * @return The trie without the points, that may be a collapsed version of this one.
+	 */
+	Trie<T> deleteAll(Batch<T> batch, int from, int to) {
+		Trie<T> trie = this;
+		for (int i = from; i < to; i++) {
+			trie = trie.delete(batch.points[i], batch.xs[i], batch.ys[i]);
+		}
+		return trie;
+	}
+	
 	abstract Trie<T> insertReplace(T point);
 	
+	abstract Trie<T> move(T point, double oldX, double oldY);
+	
 	/**
 	 * Checks if a point in a 2D plane is inside a circle of given radius.<br>
 	 * It expects that the given x and y values are already prepared by the calling method.
@@ -95,8 +273,51 @@ public abstract class Trie<T extends HasPoint> {
 		return (x+y <= Math.pow(radius,2));
 	}
 	
+	/**
+	 * Checks if the circle of given center and radius intersects the current Trie's 2D range.<br>
+	 * The point of the range closest to the center is found by clamping the center to the range, 
+	 * and then it is tested against the circle.
+	 * @param x (double)
+	 * @param y (double)
+	 * @param radius (double)
+	 * @return A boolean value, true if the circle intersects the range and vice-versa.
+	 */
+	protected boolean intersects(double x, double y, double radius) {
+		return squaredDistanceTo(x,y) <= Math.pow(radius,2);
+	}
+	
+	/**
+	 * Checks if the given rectangle intersects the current Trie's 2D range.
+	 * @param minX (double)
+	 * @param minY (double)
+	 * @param maxX (double)
+	 * @param maxY (double)
+	 * @return A boolean value, true if the rectangle intersects the range and vice-versa.
+	 */
+	protected boolean intersects(double minX, double minY, double maxX, double maxY) {
+		return minX <= this.bottomRightX && maxX >= this.topLeftX && minY <= this.topLeftY && maxY >= this.bottomRightY;
+	}
+	
+	/**
+	 * Returns the square of the distance between the given coordinates and the closest point of the current Trie's 2D range.<br>
+	 * The closest point is found by clamping the coordinates to the range, hence it is zero for coordinates inside the range.
+	 * @param x (double)
+	 * @param y (double)
+	 * @return The squared distance. (double)
+	 */
+	protected double squaredDistanceTo(double x, double y) {
+		double closestX = Math.max(topLeftX, Math.min(x, bottomRightX));
+		double closestY = Math.max(bottomRightY, Math.min(y, topLeftY));
+		return Math.pow(x - closestX,2) + Math.pow(y - closestY,2);
+	}
+	
+	/**
+	 * Sets the default capacity, used by Tries constructed without an explicit capacity.<br>
+	 * Tries that already exist keep their own capacity.
+	 * @param _capacity (int)
+	 */
 	public static void setCapacity(int _capacity) {
-		capacity = _capacity;
+		defaultCapacity = _capacity;
 	}
 	
 	@Override
@@ -0,0 +1,157 @@
+package rsa.quad;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <b>Class TrieBuilder</b>
+ * <br>
+ * This class builds the Tries holding a given range of an array of points, top-down and in a single pass.<br>
+ * The points are partitioned in place by quadrant at each node, until they fit in a leaf,
+ * so no point is inserted more than once and no leaf splits.
+ * Partitions with many points are built in parallel, as fork/join tasks.<br>
+ * The points must be inside the range of the Trie being built; this isn't checked again at each level.<br>
+ * This class is parametrized by a type that extends the HasPoint interface.
+ * @see rsa.quad.HasPoint HasPoint interface
+ * @author João Lucas Pires, Sara Ferreira
+ */
+class TrieBuilder<T extends HasPoint> extends RecursiveTask<Trie<T>> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of points below which a partition is built by the current task instead of a new one.
+	 */
+	final static int PARALLEL_THRESHOLD = 4096;
+
+	private final double topLeftX;
+	private final double topLeftY;
+	private final double bottomRightX;
+	private final double bottomRightY;
+	private final Trie.Settings settings;
+	private final int depth;
+	private final T[] points;
+	private final int from;
+	private final int to;
+
+	/**
+	 * @param topLeftX (double)
+	 * @param topLeftY (double)
+	 * @param bottomRightX (double)
+	 * @param bottomRightY (double)
+	 * @param settings of the quadtree being built (Settings)
+	 * @param depth of the Trie being built (int)
+	 * @param points array partitioned in place (T[])
+	 * @param from first position of the points of this Trie, inclusive (int)
+	 * @param to last position of the points of this Trie, exclusive (int)
+	 */
+	TrieBuilder(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, Trie.Settings settings, int depth, T[] points, int from, int to) {
+		this.topLeftX = topLeftX;
+		this.topLeftY = topLeftY;
+		this.bottomRightX = bottomRightX;
+		this.bottomRightY = bottomRightY;
+		this.settings = settings;
+		this.depth = depth;
+		this.points = points;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Builds the Trie, as a leaf if the points fit in one, or as a node otherwise.
+	 * @return The Trie holding the points
+	 */
+	@Override
+	protected Trie<T> compute() {
+		if (fitsInLeaf())
+			return buildLeaf();
+		else
+			return buildNode();
+	}
+
+	/**
+	 * Checks if the points can be held by a leaf without splitting it:
+	 * if they don't exceed the capacity, or if the leaf can't split because it is at the maximum depth
+	 * or they all have the same coordinates.
+	 * @return true if a leaf holds the points.
+	 */
+	private boolean fitsInLeaf() {
+		if (to - from <= settings.capacity || depth >= settings.maxDepth)
+			return true;
+		for (int i = from + 1; i < to; i++) {
+			if (points[i].getX() != points[from].getX() || points[i].getY() != points[from].getY())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a leaf of the kind given by the settings holding the points.
+	 * @return The leaf
+	 */
+	private Trie<T> buildLeaf() {
+		Trie<T> leaf = settings.newLeaf(topLeftX, topLeftY, bottomRightX, bottomRightY, depth);
+		for (int i = from; i < to; i++) {
+			leaf = leaf.insert(points[i]);
+		}
+		return leaf;
+	}
+
+	/**
+	 * Builds a node, partitioning the points by quadrant and building a child Trie for each part.
+	 * The parts are split as in NodeTrie: points on the middle lines go to the west and south quadrants.
+	 * @return The node
+	 */
+	NodeTrie<T> buildNode() {
+		double middleX = (bottomRightX + topLeftX)/2;
+		double middleY = (topLeftY + bottomRightY)/2;
+		int east = partition(from, to, true, middleX);
+		int westNorth = partition(from, east, false, middleY);
+		int eastNorth = partition(east, to, false, middleY);
+
+		TrieBuilder<T>[] builders = newBuilders();
+		builders[Trie.Quadrant.NW.ordinal()] = new TrieBuilder<T>(topLeftX, topLeftY, middleX, middleY, settings, depth+1, points, westNorth, east);
+		builders[Trie.Quadrant.NE.ordinal()] = new TrieBuilder<T>(middleX, topLeftY, bottomRightX, middleY, settings, depth+1, points, eastNorth, to);
+		builders[Trie.Quadrant.SW.ordinal()] = new TrieBuilder<T>(topLeftX, middleY, middleX, bottomRightY, settings, depth+1, points, from, westNorth);
+		builders[Trie.Quadrant.SE.ordinal()] = new TrieBuilder<T>(middleX, middleY, bottomRightX, bottomRightY, settings, depth+1, points, east, eastNorth);
+
+		for (TrieBuilder<T> builder : builders) {
+			if (builder.to - builder.from >= PARALLEL_THRESHOLD)
+				builder.fork();
+		}
+		Trie<T>[] tries = NodeTrie.newTries();
+		for (int i = 0; i < builders.length; i++) {
+			TrieBuilder<T> builder = builders[i];
+			tries[i] = builder.to - builder.from >= PARALLEL_THRESHOLD ? builder.join() : builder.compute();
+		}
+		return new NodeTrie<T>(topLeftX, topLeftY, bottomRightX, bottomRightY, settings, depth, tries);
+	}
+
+	/**
+	 * Partitions a range of the points in place, placing first those whose coordinate is up to the given middle.
+	 * @param start first position, inclusive (int)
+	 * @param end last position, exclusive (int)
+	 * @param horizontal if true the x coordinate is compared, otherwise the y coordinate (boolean)
+	 * @param middle (double)
+	 * @return The position of the first point whose coordinate is above the middle (int)
+	 */
+	private int partition(int start, int end, boolean horizontal, double middle) {
+		int low = start;
+		int high = end - 1;
+		while (low <= high) {
+			T point = points[low];
+			if ((horizontal ? point.getX() : point.getY()) <= middle)
+				low++;
+			else {
+				points[low] = points[high];
+				points[high] = point;
+				high--;
+			}
+		}
+		return low;
+	}
+
+	@SuppressWarnings("unchecked")
+	private TrieBuilder<T>[] newBuilders() {
+		return (TrieBuilder<T>[]) new TrieBuilder<?>[Trie.Quadrant.values().length];
+	}
+
+}
@@ -127,6 +127,17 @@ public class Manager {
 		return matcher.updateRide(rideId, current);
 	}
 
+	/**
+	 * Updates the current location of the ride, returning only its best k matches, sorted.
+	 * @param rideId (long)
+	 * @param current (Location)
+	 * @param k maximum number of matches (int)
+	 * @return Set of RideMatchInfo, or null if the ride has been matched.
+	 */
+	public Set<RideMatchInfo> updateRide(long rideId, Location current, int k) {
+		return matcher.updateRide(rideId, current, k);
+	}
+
 	public Users getAllUsers() {
 		return allUsers;
 	}
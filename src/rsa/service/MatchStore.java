@@ -0,0 +1,194 @@
+package rsa.service;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * <b>Class MatchStore</b>
+ * <br>This class keeps the ride matches proposed by the Matcher, until they are accepted or go stale.<br>
+ * Each proposal is kept by match ID, in the order it was proposed, and indexed by the IDs of both its rides,
+ * so the proposals of a ride are dropped when it is matched, concluded or queried again, without scanning the others.<br>
+ * Proposals older than a time to live are evicted, and the oldest ones are evicted when there are more than a maximum size,
+ * hence the store is bounded however often rides are updated.
+ * @see rsa.service.Matcher Matcher
+ * @author João Lucas Pires, Sara Ferreira
+ */
+class MatchStore {
+	private final long timeToLive;
+	private final int maxSize;
+	private final LongSupplier clock;
+	private final LinkedHashMap<Long,Proposal> proposals;
+	private final Map<Long,Set<Proposal>> byRide;
+
+	/**
+	 * <b>Class Proposal</b>
+	 * <br>A proposed match, with the IDs of the ride that queried it and of its partner, and the time it was proposed.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static final class Proposal {
+		final Matcher.RideMatch match;
+		final long rideId;
+		final long partnerId;
+		final long time;
+
+		Proposal(Matcher.RideMatch match, long time) {
+			this.match = match;
+			this.rideId = match.getRide(match.getUserRole()).getId();
+			this.partnerId = match.getRide(match.getUserRole().other()).getId();
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Constructs an empty store, evicting proposals older than the given time to live
+	 * or beyond the given maximum size.<br>
+	 * Ages are measured with System.nanoTime, so they don't jump when the wall clock is set.
+	 * @param timeToLive in milliseconds (long)
+	 * @param maxSize (int)
+	 */
+	MatchStore(long timeToLive, int maxSize) {
+		this(timeToLive, maxSize, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+	}
+
+	/**
+	 * Constructs an empty store with the given clock, in milliseconds.<br>
+	 * Only differences between its readings are used, so it may start anywhere, but it must not go back.
+	 * @param timeToLive in milliseconds (long)
+	 * @param maxSize (int)
+	 * @param clock (LongSupplier)
+	 */
+	MatchStore(long timeToLive, int maxSize, LongSupplier clock) {
+		if (timeToLive < 0 || maxSize < 1)
+			throw new IllegalArgumentException("The time to live and the size of the store must be positive!");
+		this.timeToLive = timeToLive;
+		this.maxSize = maxSize;
+		this.clock = clock;
+		this.proposals = new LinkedHashMap<Long,Proposal>();
+		this.byRide = new HashMap<Long,Set<Proposal>>();
+	}
+
+	/**
+	 * Returns the number of proposals kept, including those expired but not yet evicted.
+	 * @return The size (int)
+	 */
+	int size() {
+		return proposals.size();
+	}
+
+	/**
+	 * Keeps a proposed match, evicting the stale ones first.
+	 * @param match (RideMatch)
+	 */
+	void put(Matcher.RideMatch match) {
+		long now = clock.getAsLong();
+		evict(now);
+		Proposal proposal = new Proposal(match, now);
+		Proposal old = proposals.remove(match.getId());
+		if (old != null)
+			unlink(old);
+		proposals.put(match.getId(), proposal);
+		link(proposal.rideId, proposal);
+		link(proposal.partnerId, proposal);
+		while (proposals.size() > maxSize)
+			remove(proposals.values().iterator().next());
+	}
+
+	/**
+	 * Returns the proposed match with the given ID.
+	 * @param matchId (long)
+	 * @return The match, or null if there is none or it expired.
+	 */
+	Matcher.RideMatch get(long matchId) {
+		Proposal proposal = proposals.get(matchId);
+		if (proposal == null || expired(proposal, clock.getAsLong()))
+			return null;
+		return proposal.match;
+	}
+
+	/**
+	 * Drops the proposals queried by the given ride, as it is queried again.
+	 * @param rideId (long)
+	 */
+	void removeQueriedBy(long rideId) {
+		removeIf(rideId, proposal -> proposal.rideId == rideId);
+	}
+
+	/**
+	 * Drops the proposals of the given ride with rides other than its partner, once it is matched.
+	 * The proposals with the partner are kept, so the partner can still accept them.
+	 * @param rideId (long)
+	 * @param partnerId (long)
+	 */
+	void retainPartner(long rideId, long partnerId) {
+		removeIf(rideId, proposal -> proposal.rideId != partnerId && proposal.partnerId != partnerId);
+	}
+
+	/**
+	 * Drops all the proposals of the given ride, whichever ride queried them.
+	 * @param rideId (long)
+	 */
+	void removeRide(long rideId) {
+		removeIf(rideId, proposal -> true);
+	}
+
+	/**
+	 * Drops the proposals of the given ride that meet the given condition.
+	 * @param rideId (long)
+	 * @param condition (Predicate of Proposal)
+	 */
+	private void removeIf(long rideId, Predicate<Proposal> condition) {
+		Set<Proposal> set = byRide.get(rideId);
+		if (set == null)
+			return;
+		for (Proposal proposal : set.toArray(new Proposal[set.size()])) {
+			if (condition.test(proposal))
+				remove(proposal);
+		}
+	}
+
+	/**
+	 * Evicts the proposals older than the time to live, that are the first ones in proposal order.
+	 * @param now (long)
+	 */
+	private void evict(long now) {
+		Iterator<Proposal> iterator = proposals.values().iterator();
+		while (iterator.hasNext()) {
+			Proposal proposal = iterator.next();
+			if (!expired(proposal, now))
+				return;
+			iterator.remove();
+			unlink(proposal);
+		}
+	}
+
+	private boolean expired(Proposal proposal, long now) {
+		return now - proposal.time > timeToLive;
+	}
+
+	private void remove(Proposal proposal) {
+		proposals.remove(proposal.match.getId());
+		unlink(proposal);
+	}
+
+	private void link(long rideId, Proposal proposal) {
+		byRide.computeIfAbsent(rideId, key -> new HashSet<Proposal>()).add(proposal);
+	}
+
+	private void unlink(Proposal proposal) {
+		unlink(proposal.rideId, proposal);
+		unlink(proposal.partnerId, proposal);
+	}
+
+	private void unlink(long rideId, Proposal proposal) {
+		Set<Proposal> set = byRide.get(rideId);
+		if (set != null && set.remove(proposal) && set.isEmpty())
+			byRide.remove(rideId);
+	}
+
+}
@@ -2,12 +2,20 @@ package rsa.service;
 
 import java.io.Serializable;
 import java.lang.String;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.PriorityQueue;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
 
+import rsa.quad.GridIndex;
+import rsa.quad.HasPoint;
+import rsa.quad.MortonIndex;
+import rsa.quad.PointOutOfBoundException;
 import rsa.quad.PointQuadtree;
-import rsa.quad.Trie;
+import rsa.quad.SpatialIndex;
 import rsa.shared.Location;
 import rsa.shared.PreferredMatch;
 import rsa.shared.RideMatchInfo;
@@ -15,18 +23,28 @@ import rsa.shared.RideRole;
 import rsa.shared.UserStars;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * <b>Class Matcher</b>
  * <br>An instance of this class will match pair of rides, matching occurs when rides positions are updated and use quad trees rsa.quad to locate matches currently in nearby locations. <br>
+ * The spatial index holding the rides is chosen by the static index kind, when the Matcher is constructed.<br>
+ * Rides are also indexed by destination, in a second spatial index of the same kind, 
+ * so candidates can be found near either end of the ride, whichever has fewer rides.<br>
+ * Drivers and passengers are kept in separate indexes, so a ride only looks for candidates among the rides of the other role.<br>
+ * The matchable partners of each unmatched ride are kept by a MatchingEngine, updated as rides move,
+ * so the indexes are only probed when a ride moved far enough for its neighbourhood to change.<br>
  * @see rsa.quad
  * @author João Lucas Pires, Sara Ferreira
  */
 public class Matcher implements Serializable {
 	private static Map<Long,Ride> rides;
-	private static PointQuadtree<Location> qtree;
-	private static Map<Long,RideMatch> matches;
+	private static Map<RideRole,SpatialIndex<Ride>> indexes;
+	private static Map<RideRole,SpatialIndex<Destination>> destinations;
+	private static SpatialIndex.Kind indexKind = SpatialIndex.Kind.QUADTREE;
+	private static MatchStore matches;
+	private static MatchingEngine engine;
 	private static Location bottomRight;
 	private static Location topLeft;
 	private static double radius;
@@ -38,18 +56,53 @@ public class Matcher implements Serializable {
 	private static final float BOTTOM_RIGHT_X = (float) 1000.0;
 	private static final float BOTTOM_RIGHT_Y = (float) 0.0;
 	private static final float DEFAULT_RADIUS = (float) 10.0;
+	//Default bounds of the proposed matches kept for acceptance.
+	private static final long DEFAULT_MATCH_TIME_TO_LIVE = 10 * 60 * 1000;
+	private static final int DEFAULT_MAX_MATCHES = 100000;
+	//Number of rides first collected near each end of a ride, doubled until one end has fewer.
+	private static final int PROBE_LIMIT = 16;
+	private static long matchTimeToLive = DEFAULT_MATCH_TIME_TO_LIVE;
+	private static int maxMatches = DEFAULT_MAX_MATCHES;
 	
 	public Matcher() {
-		matches = new HashMap<Long,RideMatch>();
+		matches = new MatchStore(matchTimeToLive,maxMatches);
 		topLeft = new Location(TOP_LEFT_X,TOP_LEFT_Y); 
 		bottomRight = new Location(BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y);
-		qtree = new PointQuadtree<Location>(topLeft.getX(),topLeft.getY(),bottomRight.getX(),bottomRight.getY());
-		rides = new HashMap<Long,Ride>();
 		radius = DEFAULT_RADIUS;
+		indexes = new EnumMap<RideRole,SpatialIndex<Ride>>(RideRole.class);
+		destinations = new EnumMap<RideRole,SpatialIndex<Destination>>(RideRole.class);
+		for (RideRole role : RideRole.values()) {
+			indexes.put(role, newIndex());
+			destinations.put(role, newIndex());
+		}
+		rides = new HashMap<Long,Ride>();
+		engine = new MatchingEngine(Matcher::findCandidates, (left,right) -> new RideMatch(left,right));
 	}
 	
 	/**
-	 * Creates and adds a new Ride to the Matcher's ride map.
+	 * Creates an empty spatial index of the current kind, over the matching boundaries.<br>
+	 * A grid has cells as large as the current matching radius, so a query within the matching radius touches at most 9 cells,
+	 * and a probe of the MatchingEngine, reaching half the radius further, at most 16 cells.<br>
+	 * A quadtree grows to hold rides outside the matching boundaries, so new regions are served without a new Matcher;
+	 * the other kinds of index throw PointOutOfBoundException for those rides.
+	 * @return SpatialIndex of P extends HasPoint
+	 */
+	private static <P extends HasPoint> SpatialIndex<P> newIndex() {
+		switch (indexKind) {
+			case GRID:
+				return new GridIndex<P>(topLeft.getX(),topLeft.getY(),bottomRight.getX(),bottomRight.getY(),radius);
+			case MORTON:
+				return new MortonIndex<P>(topLeft.getX(),topLeft.getY(),bottomRight.getX(),bottomRight.getY());
+			default:
+				PointQuadtree<P> quadtree = new PointQuadtree<P>(topLeft.getX(),topLeft.getY(),bottomRight.getX(),bottomRight.getY());
+				quadtree.setAutoGrow(true);
+				return quadtree;
+		}
+	}
+	
+	/**
+	 * Creates and adds a new Ride to the Matcher's ride map and indexes it by its current location and by its destination,
+	 * in the indexes of its role, and matches it with the rides of the other role nearby.
 	 * @param user (User)
 	 * @param from (Location)
 	 * @param to (Location)
@@ -60,13 +113,32 @@ public class Matcher implements Serializable {
 	public long addRide(User user, Location from, Location to, String plate, float cost) {
 		Ride newRide = new Ride(user,from,to,plate,cost);
 		rides.put(newRide.getId(),newRide);
-		qtree.insert(from);
-		qtree.insert(to);
+		indexes.get(newRide.getRideRole()).insert(newRide);
+		destinations.get(newRide.getRideRole()).insert(new Destination(newRide));
+		engine.add(newRide);
 		return newRide.getId();
 	}
 
+	/**
+	 * Matches the ride with the proposed match of the given ID.<br>
+	 * The ride's proposals with other rides are dropped, the ones with its partner are kept until the partner accepts too.
+	 * @param rideId (long)
+	 * @param matchId (long)
+	 */
 	public void acceptMatch(long rideId, long matchId) {
-		rides.get(rideId).setMatch(matches.get(matchId));
+		Ride ride = rides.get(rideId);
+		RideMatch match = matches.get(matchId);
+		ride.setMatch(match);
+		if (match == null)
+			return;
+		engine.remove(rideId);
+		Ride partner = match.getRide(ride.getRideRole().other());
+		if (partner.isMatched()) {
+			matches.removeRide(rideId);
+			matches.removeRide(partner.getId());
+		}
+		else
+			matches.retainPartner(rideId, partner.getId());
 		return;
 	}
 
@@ -75,7 +147,11 @@ public class Matcher implements Serializable {
 		RideRole userRole = ride.getMatch().getUserRole();
 		User starsUser = ride.getMatch().getRides().get(userRole).getUser();
 		starsUser.addStars(stars, userRole);
+		indexes.get(ride.getRideRole()).delete(ride);
+		destinations.get(ride.getRideRole()).delete(new Destination(ride));
 		rides.remove(rideId);
+		engine.remove(rideId);
+		matches.removeRide(rideId);
 		return;
 	}
 
@@ -100,6 +176,45 @@ public class Matcher implements Serializable {
 		return;
 	}
 
+	public static SpatialIndex.Kind getIndexKind() {
+		return indexKind;
+	}
+
+	/**
+	 * Sets the kind of spatial index used by the Matchers constructed afterwards.
+	 * @param _indexKind (SpatialIndex.Kind)
+	 */
+	public static void setIndexKind(SpatialIndex.Kind _indexKind) {
+		indexKind = _indexKind;
+		return;
+	}
+
+	public static long getMatchTimeToLive() {
+		return matchTimeToLive;
+	}
+
+	/**
+	 * Sets how long, in milliseconds, a proposed match can be accepted, for the Matchers constructed afterwards.
+	 * @param _matchTimeToLive (long)
+	 */
+	public static void setMatchTimeToLive(long _matchTimeToLive) {
+		matchTimeToLive = _matchTimeToLive;
+		return;
+	}
+
+	public static int getMaxMatches() {
+		return maxMatches;
+	}
+
+	/**
+	 * Sets how many proposed matches are kept at most, for the Matchers constructed afterwards.
+	 * @param _maxMatches (int)
+	 */
+	public static void setMaxMatches(int _maxMatches) {
+		maxMatches = _maxMatches;
+		return;
+	}
+
 	public static double getRadius() {
 		return radius;
 	}
@@ -109,29 +224,137 @@ public class Matcher implements Serializable {
 		return;
 	}
 	/**
-	 * Updates the current location of the requested ride.<br>
-	 * Next, if the ride hasn't been matched, creates a sorted set of RidesMatchInfo in order to choose the best match.
+	 * Updates the current location of the requested ride, reindexing it in the spatial index.<br>
+	 * Next, if the ride hasn't been matched, creates a sorted set of RidesMatchInfo in order to choose the best match.<br>
+	 * Only the rides of the other role within the matching radius of both the current location and the destination are candidates.
+	 * The MatchingEngine updates the ride's matches, and those of its neighbours with it, as it moves:
+	 * only the rides entering the radius get a new match, the matches with rides that left it are dropped,
+	 * and the others are kept across updates, with the same match ID.
+	 * The matches the ride was proposed before are dropped, and the current ones are kept until accepted or evicted.<br>
 	 * @param rideId (long)
 	 * @param current (current)
 	 * @return a SortedSet of RideMatchInfo if the specified ride hasn't been matched or null in the opposite case.*/
 	SortedSet<RideMatchInfo> updateRide(long rideId, Location current) {
+		return updateRide(rideId, current, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Updates the current location of the requested ride as updateRide does, but keeps only the best k matches.<br>
+	 * The matches are ranked in a heap bounded to k, with the worst of them on top, 
+	 * so ranking n candidates takes O(n log k) time rather than sorting them all.
+	 * Matches the ride's comparator ranks alike are ordered by match ID, so none of them is dropped from the set,
+	 * and their order is stable across updates.
+	 * Throws IllegalArgumentException if k isn't positive.
+	 * Throws PointOutOfBoundException if the index can't hold the new location, leaving the ride at its previous one.
+	 * @param rideId (long)
+	 * @param current (current)
+	 * @param k maximum number of matches (int)
+	 * @return a SortedSet of at most k RideMatchInfo if the specified ride hasn't been matched or null in the opposite case.*/
+	SortedSet<RideMatchInfo> updateRide(long rideId, Location current, int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("The number of matches must be positive!");
 		Ride ride = rides.get(rideId);
+		Location previous = ride.getCurrent();
 		ride.setCurrent(current);
+		try {
+			indexes.get(ride.getRideRole()).move(ride, previous.getX(), previous.getY());
+		} catch (PointOutOfBoundException e) {
+			ride.setCurrent(previous);
+			throw e;
+		}
 		if (!ride.isMatched()) {
-			SortedSet<RideMatchInfo> set = new TreeSet<RideMatchInfo>(ride.getComparator());
-			for (Ride aux : rides.values()) {
-				RideMatch rm = new RideMatch(ride,aux);
-				if (rm.matchable()) {
-					matches.put(rm.getId(), rm);
-					RideMatchInfo rmi = new RideMatchInfo(rm);
-					set.add(rmi);
-				}
+			engine.move(ride);
+			matches.removeQueriedBy(rideId);
+			Comparator<RideMatchInfo> comparator = ride.getComparator().thenComparingLong(RideMatchInfo::getMatchId);
+			PriorityQueue<RideMatchInfo> best = new PriorityQueue<RideMatchInfo>(comparator.reversed());
+			for (RideMatch rm : engine.matchesOf(rideId)) {
+				matches.put(rm);
+				best.offer(new RideMatchInfo(rm));
+				if (best.size() > k)
+					best.poll();
 			}
+			SortedSet<RideMatchInfo> set = new TreeSet<RideMatchInfo>(comparator);
+			set.addAll(best);
 			return set;
 		}
 		return null;
 	}
 
+	/**
+	 * Returns the rides of the other role within the given reach of the ride's current location,
+	 * or within the matching radius of its destination, whichever end has fewer rides.<br>
+	 * Up to a limit of rides is collected near each end in turn, doubling the limit until one end has fewer,
+	 * so the cost depends on the end with fewer rides rather than on the busiest one.
+	 * The candidates must still be checked against the other end.
+	 * @param ride (Ride)
+	 * @param reach (double)
+	 * @return List of Ride
+	 */
+	private static List<Ride> findCandidates(Ride ride, double reach) {
+		List<Ride> near = new ArrayList<Ride>();
+		List<Destination> bound = new ArrayList<Destination>();
+		RideRole role = ride.getRideRole().other();
+		for (int limit = PROBE_LIMIT; ; limit *= 2) {
+			if (collectNear(indexes.get(role), ride.getCurrent(), reach, limit, near))
+				return near;
+			if (collectNear(destinations.get(role), ride.getTo(), getRadius(), limit, bound)) {
+				near.clear();
+				for (Destination destination : bound)
+					near.add(destination.ride);
+				return near;
+			}
+		}
+	}
+
+	/**
+	 * Collects in the given list the points within the given radius of the given location, up to the given limit.
+	 * @param index (SpatialIndex of P extends HasPoint)
+	 * @param center (Location)
+	 * @param radius (double)
+	 * @param limit (int)
+	 * @param list (List of P extends HasPoint)
+	 * @return true if every point was collected, false if the limit was reached.
+	 */
+	private static <P extends HasPoint> boolean collectNear(SpatialIndex<P> index, Location center, double radius, int limit, List<P> list) {
+		list.clear();
+		return index.visitNear(center.getX(), center.getY(), radius, point -> {
+			list.add(point);
+			return list.size() < limit;
+		});
+	}
+
+	/**
+	 * Class Destination<br>
+	 * (Parent Class Matcher)
+	 * Locates a Ride at its destination, to index rides by destination. It is equal to other destinations of the same ride.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static class Destination implements HasPoint {
+		private final Ride ride;
+		
+		Destination(Ride ride) {
+			this.ride = ride;
+		}
+		
+		public double getX() {
+			return ride.getTo().getX();
+		}
+		
+		public double getY() {
+			return ride.getTo().getY();
+		}
+		
+		@Override
+		public int hashCode() {
+			return ride.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof Destination && ((Destination) object).ride == ride;
+		}
+	}
+
 	/**
 	 * Class RideMatch<br>
 	 * (Parent Class Matcher)
@@ -168,20 +391,6 @@ public class Matcher implements Serializable {
 			return this.rides.get(role);
 		}
 
-		private boolean matchable() {
-			Ride left = rides.get(userRole);
-			Ride right = rides.get(userRole.other());
-			if (left == null || right == null)
-				return false;
-			if (left.isMatched() || right.isMatched() )
-				return false;
-			if (Trie.getDistance(left.getCurrent().getX(),left.getCurrent().getY(),right.getCurrent().getX(),right.getCurrent().getY()) > getRadius())
-				return false;
-			if (Trie.getDistance(left.getTo().getX(),left.getTo().getY(),right.getTo().getX(),right.getTo().getY()) > getRadius())
-				return false;
-			return true;
-		}
-
 		public Map<RideRole, Ride> getRides() {
 			return this.rides;
 		}
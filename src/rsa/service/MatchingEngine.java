@@ -0,0 +1,259 @@
+package rsa.service;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import rsa.quad.Trie;
+import rsa.shared.Location;
+
+/**
+ * <b>Class MatchingEngine</b>
+ * <br>This class keeps the matchable partners of each unmatched ride, updating them as rides move, instead of finding them again on every update.<br>
+ * Each ride keeps its neighbours: the rides of the other role going to the same destination,
+ * that were within the matching radius plus a skin of its current location when either of them last probed the spatial index.
+ * Neighbours are linked both ways, and a ride probes again only after moving more than a third of the skin since its last probe,
+ * hence any ride within the matching radius is already a neighbour, however both moved since.<br>
+ * When a ride moves, only the pairs with its neighbours are checked, on both sides:
+ * the partners entering the matching radius are added to both, and those that left it are dropped along with their matches.
+ * A match is created only when its ride is queried, and then kept while its partner stays within the radius.
+ * So an update costs as much as the ride's neighbourhood, and the spatial index is probed only every so often.<br>
+ * Rides are removed once matched or concluded, along with their pairs in their neighbours.
+ * @see rsa.service.Matcher Matcher
+ * @author João Lucas Pires, Sara Ferreira
+ */
+class MatchingEngine {
+	//Skin added to the matching radius when looking for neighbours, as a fraction of the radius.
+	static final double SKIN = 0.5;
+
+	private final Probe probe;
+	private final BiFunction<Ride,Ride,Matcher.RideMatch> newMatch;
+	private final Map<Long,Node> nodes;
+	private double linkedRadius;
+	private int probeCount;
+
+	/**
+	 * <b>Interface Probe</b>
+	 * <br>Finds in the spatial indexes the rides that may be neighbours of the given ride.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	interface Probe {
+		/**
+		 * Returns the rides of the other role within the given reach of the ride's current location
+		 * and within the matching radius of its destination; it may return others too.
+		 * @param ride (Ride)
+		 * @param reach (double)
+		 * @return Collection of Ride
+		 */
+		Collection<Ride> near(Ride ride, double reach);
+	}
+
+	/**
+	 * <b>Class Node</b>
+	 * <br>A ride with its neighbours, the location of its last probe, the IDs of the neighbours currently matchable,
+ * and the matches already created with them.
+	 * @author João Lucas Pires, Sara Ferreira
+	 */
+	private static final class Node {
+		final Ride ride;
+		final Map<Long,Node> neighbours = new HashMap<Long,Node>();
+		final Set<Long> partners = new HashSet<Long>();
+		final Map<Long,Matcher.RideMatch> matches = new HashMap<Long,Matcher.RideMatch>();
+		Location origin;
+		//Number of the last probe that found this node.
+		int mark;
+
+		void addPartner(long partnerId) {
+			partners.add(partnerId);
+		}
+
+		void removePartner(long partnerId) {
+			partners.remove(partnerId);
+			matches.remove(partnerId);
+		}
+
+		Node(Ride ride) {
+			this.ride = ride;
+		}
+	}
+
+	/**
+	 * Constructs an empty engine.
+	 * @param probe finds the rides near a ride in the spatial indexes (Probe)
+	 * @param newMatch creates the match of a ride with a partner (BiFunction of Ride, Ride and RideMatch)
+	 */
+	MatchingEngine(Probe probe, BiFunction<Ride,Ride,Matcher.RideMatch> newMatch) {
+		this.probe = probe;
+		this.newMatch = newMatch;
+		this.nodes = new HashMap<Long,Node>();
+		this.linkedRadius = Matcher.getRadius();
+		this.probeCount = 0;
+	}
+
+	/**
+	 * Returns the number of times the spatial indexes were probed.
+	 * @return The probe count (int)
+	 */
+	int getProbeCount() {
+		return probeCount;
+	}
+
+	/**
+	 * Adds a ride, linking it to its neighbours and matching it with those within the matching radius.
+	 * @param ride (Ride)
+	 */
+	void add(Ride ride) {
+		checkRadius();
+		Node node = new Node(ride);
+		nodes.put(ride.getId(), node);
+		relink(node);
+	}
+
+	/**
+	 * Updates the matches of a ride whose current location changed, and those of its neighbours with it.<br>
+	 * If the ride moved more than a third of the skin since its last probe, it probes again for its neighbours.
+	 * @param ride (Ride)
+	 */
+	void move(Ride ride) {
+		checkRadius();
+		Node node = nodes.get(ride.getId());
+		if (node == null)
+			return;
+		Location current = ride.getCurrent();
+		if (Trie.getDistance(node.origin.getX(),node.origin.getY(),current.getX(),current.getY()) > Matcher.getRadius() * SKIN / 3)
+			relink(node);
+		else {
+			for (Node other : node.neighbours.values())
+				evaluate(node, other);
+		}
+	}
+
+	/**
+	 * Returns the current matches of the given ride, each queried by it, creating those with its new partners.
+	 * @param rideId (long)
+	 * @return Collection of RideMatch, empty if the ride isn't in the engine.
+	 */
+	Collection<Matcher.RideMatch> matchesOf(long rideId) {
+		Node node = nodes.get(rideId);
+		if (node == null)
+			return new HashSet<Matcher.RideMatch>();
+		if (node.matches.size() < node.partners.size()) {
+			for (long partnerId : node.partners) {
+				if (!node.matches.containsKey(partnerId))
+					node.matches.put(partnerId, newMatch.apply(node.ride, nodes.get(partnerId).ride));
+			}
+		}
+		return node.matches.values();
+	}
+
+	/**
+	 * Removes a ride, once matched or concluded, along with its pairs in its neighbours.
+	 * @param rideId (long)
+	 */
+	void remove(long rideId) {
+		Node node = nodes.remove(rideId);
+		if (node == null)
+			return;
+		for (Node other : node.neighbours.values()) {
+			other.neighbours.remove(rideId);
+			other.removePartner(rideId);
+		}
+	}
+
+	/**
+	 * Probes the spatial indexes for the neighbours of the given ride,
+	 * linking it to the new ones, unlinking it from those that are no longer, and checking all its pairs.
+	 * @param node (Node)
+	 */
+	private void relink(Node node) {
+		Ride ride = node.ride;
+		double reach = Matcher.getRadius() * (1 + SKIN);
+		int mark = ++probeCount;
+		for (Ride aux : probe.near(ride, reach)) {
+			Node other = nodes.get(aux.getId());
+			if (other == null || other == node || !neighbours(ride, aux, reach))
+				continue;
+			other.mark = mark;
+			if (node.neighbours.putIfAbsent(aux.getId(), other) == null)
+				other.neighbours.put(ride.getId(), node);
+		}
+		Iterator<Node> iterator = node.neighbours.values().iterator();
+		while (iterator.hasNext()) {
+			Node other = iterator.next();
+			if (other.mark != mark) {
+				iterator.remove();
+				other.neighbours.remove(ride.getId());
+				other.removePartner(ride.getId());
+				node.removePartner(other.ride.getId());
+			}
+		}
+		node.origin = ride.getCurrent();
+		for (Node other : node.neighbours.values())
+			evaluate(node, other);
+	}
+
+	/**
+	 * Probes again for the neighbours of every ride if the matching radius changed since they were linked.
+	 */
+	private void checkRadius() {
+		if (linkedRadius == Matcher.getRadius())
+			return;
+		linkedRadius = Matcher.getRadius();
+		for (Node node : nodes.values())
+			relink(node);
+	}
+
+	/**
+	 * Adds a pair of neighbours as partners on both sides if they are matchable, or drops them and their matches if they aren't.
+	 * A pair that stays matchable keeps its matches, and their IDs.
+	 * @param node (Node)
+	 * @param other (Node)
+	 */
+	private void evaluate(Node node, Node other) {
+		long id = node.ride.getId();
+		long otherId = other.ride.getId();
+		if (matchable(node.ride, other.ride)) {
+			node.addPartner(otherId);
+			other.addPartner(id);
+		}
+		else {
+			node.removePartner(otherId);
+			other.removePartner(id);
+		}
+	}
+
+	/**
+	 * Checks if two rides are neighbours: of different roles,
+	 * with current locations within the given reach and destinations within the matching radius.
+	 * @param left (Ride)
+	 * @param right (Ride)
+	 * @param reach (double)
+	 * @return true if they are neighbours.
+	 */
+	private static boolean neighbours(Ride left, Ride right, double reach) {
+		if (left.getRideRole() == right.getRideRole())
+			return false;
+		if (Trie.getDistance(left.getCurrent().getX(),left.getCurrent().getY(),right.getCurrent().getX(),right.getCurrent().getY()) > reach)
+			return false;
+		if (Trie.getDistance(left.getTo().getX(),left.getTo().getY(),right.getTo().getX(),right.getTo().getY()) > Matcher.getRadius())
+			return false;
+		return true;
+	}
+
+	/**
+	 * Checks if two rides can be matched: both unmatched, of different roles,
+	 * with current locations and destinations within the matching radius.
+	 * @param left (Ride)
+	 * @param right (Ride)
+	 * @return true if they are matchable.
+	 */
+	static boolean matchable(Ride left, Ride right) {
+		if (left.isMatched() || right.isMatched())
+			return false;
+		return neighbours(left, right, Matcher.getRadius());
+	}
+
+}
@@ -105,7 +105,7 @@ public class Users extends Object implements Serializable {
 			objectOutput.close();
 		}
 		catch (IOException e) {
-			throw new RideSharingAppException("An error has occurred while serializing!");
+			throw new RideSharingAppException("An error has occurred while serializing!", e);
 		}
 		System.out.println("The object has been serialized!");
 		return true;
@@ -136,7 +136,7 @@ public class Users extends Object implements Serializable {
 			objectOutput.close();
 		}
 		catch (IOException e) {
-			throw new RideSharingAppException("An error has occurred while serializing!");
+			throw new RideSharingAppException("An error has occurred while serializing!", e);
 		}
 		System.out.println("The object has been serialized!");
 		return true;
@@ -6,6 +6,7 @@ import java.lang.String;
 /**
  * <b>Class RideSharingAppException</b>
  * <br>An exception raised by the ride sharing service<br>
+ * The message and cause, if given, are kept by the exception, as in Exception, for the caller to report.
  * @author João Lucas Pires, Sara Ferreira
  */
 public class RideSharingAppException extends Exception implements Serializable {
@@ -15,20 +16,19 @@ public class RideSharingAppException extends Exception implements Serializable {
 		
 	}
 	
-	public RideSharingAppException(String message, Throwable cause, boolean enableSurpression, boolean writableStackTrace) {
-		
+	public RideSharingAppException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
 	}
 	
 	public RideSharingAppException(String message, Throwable cause){
-		
+		super(message, cause);
 	}
 	
 	public RideSharingAppException(String message) {
-		System.out.println(message);
+		super(message);
 	}
 	
 	public RideSharingAppException(Throwable cause) {
-	
-		
+		super(cause);
 	}
 }
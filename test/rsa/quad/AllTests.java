@@ -11,7 +11,7 @@ import org.junit.runners.Suite.SuiteClasses;
  *
  */
 @RunWith(Suite.class)
-@SuiteClasses({ LeafTrieTest.class, NodeTrieTest.class, PointQuadtreeTest.class,
+@SuiteClasses({ ArrayLeafTrieTest.class, ConcurrentPointQuadtreeTest.class, GridIndexTest.class, LeafTrieTest.class, MortonIndexTest.class, NodeTrieTest.class, PointQuadtreeTest.class,
 		TrieTest.class })
 public class AllTests {
 
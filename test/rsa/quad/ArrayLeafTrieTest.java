@@ -0,0 +1,147 @@
+package rsa.quad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test on an ArrayLeafTrie, the leaves of a quadtree
+ * keeping the coordinates of their points in arrays
+ *
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class ArrayLeafTrieTest {
+
+	private static int CAPACITY = 10;
+
+	private static final int BOTTOM_RIGHT_Y = 10;
+	private static final int BOTTOM_RIGHT_X = 20;
+	private static final int TOP_LEFT_Y = 20;
+	private static final int TOP_LEFT_X = 10;
+
+	private static final int CENTER_X = (TOP_LEFT_X + BOTTOM_RIGHT_X)/2;
+	private static final int CENTER_Y = (TOP_LEFT_Y + BOTTOM_RIGHT_Y)/2;
+
+	private static final int SMALL_RADIUS = 1;
+
+	private static final Location CENTER = new Location("", CENTER_Y, CENTER_X);
+
+	Trie<Location> leaf;
+	Set<Location> points;
+
+	/**
+	 * Create a leaf and a set for collecting points
+	 */
+	@Before
+	public void setUp() {
+		leaf = newLeaf(CAPACITY, Trie.DEFAULT_MAX_DEPTH);
+		points = new HashSet<>();
+	}
+
+	private Trie<Location> newLeaf(int capacity, int maxDepth) {
+		return new ArrayLeafTrie<Location>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y,
+				new Trie.Settings(capacity,maxDepth,Trie.LeafKind.ARRAY),0);
+	}
+
+	/**
+	 * Test a single location using insertion, find and delete
+	 */
+	@Test
+	public void testInsertFindDelete() {
+		assertNull(leaf.find(CENTER));
+
+		leaf.insert(CENTER);
+		assertEquals(CENTER,leaf.find(CENTER));
+
+		leaf.delete(CENTER);
+		assertNull(leaf.find(CENTER));
+		assertEquals(0,leaf.size());
+	}
+
+	/**
+	 * Check that deleting a point keeps others with the same coordinates
+	 */
+	@Test
+	public void testDeleteCoincidentPoint() {
+		Location other = new Location("other", CENTER_Y, CENTER_X);
+
+		leaf.insert(CENTER);
+		leaf.insert(other);
+
+		leaf.delete(CENTER);
+		assertEquals(other,leaf.find(CENTER));
+	}
+
+	/**
+	 * Check that inserting a point again keeps it once, so a single delete removes it
+	 */
+	@Test
+	public void testReinsertAndDelete() {
+		leaf.insert(CENTER);
+		leaf.insert(CENTER);
+		assertEquals(1,leaf.size());
+
+		leaf.delete(CENTER);
+		assertNull(leaf.find(CENTER));
+	}
+
+	/**
+	 * Check that the leaf splits when its capacity is exceeded,
+	 * and overflows instead at the maximum depth
+	 */
+	@Test
+	public void testCapacity() {
+		Trie<Location> small = newLeaf(2, Trie.DEFAULT_MAX_DEPTH);
+
+		assertTrue(small.insert(new Location("",CENTER_Y-1,CENTER_X-1)) instanceof ArrayLeafTrie);
+		assertTrue(small.insert(new Location("",CENTER_Y+1,CENTER_X+1)) instanceof ArrayLeafTrie);
+		assertTrue(small.insert(CENTER) instanceof NodeTrie);
+
+		Trie<Location> shallow = newLeaf(2, 0);
+		for(int i=0; i < 3*CAPACITY; i++)
+			assertTrue(shallow.insert(new Location("",CENTER_Y,CENTER_X+i*0.1)) instanceof ArrayLeafTrie);
+		assertEquals(3*CAPACITY,shallow.size());
+	}
+
+	/**
+	 * Check that a moved point is found at its new coordinates
+	 */
+	@Test
+	public void testMove() {
+		Location moving = new Location("moving", CENTER_Y, CENTER_X);
+		leaf.insert(moving);
+
+		moving.longitude = CENTER_X + SMALL_RADIUS;
+		leaf.move(moving, CENTER_X, CENTER_Y);
+
+		assertEquals(moving,leaf.find(new Location("", CENTER_Y, CENTER_X + SMALL_RADIUS)));
+		assertNull(leaf.find(CENTER));
+	}
+
+	/**
+	 * Find near points, in a rectangle and all points in a grid
+	 */
+	@Test
+	public void testFindInGrid() {
+		for(int x=CENTER_X-1; x <= CENTER_X+1; x++)
+			for(int y=CENTER_Y-1; y <= CENTER_Y+1; y++)
+				leaf.insert(new Location("",y,x));
+
+		leaf.collectNear(CENTER_X, CENTER_Y, SMALL_RADIUS, points);
+		assertEquals(5,points.size());
+
+		points.clear();
+		leaf.visitInRect(CENTER_X, CENTER_Y, CENTER_X+1, CENTER_Y+1, points::add);
+		assertEquals(4,points.size());
+
+		points.clear();
+		leaf.collectAll(points);
+		assertEquals(9,points.size());
+	}
+}
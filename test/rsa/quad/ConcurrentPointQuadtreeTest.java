@@ -0,0 +1,211 @@
+package rsa.quad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test on a ConcurrentPointQuadtree, sequentially against a PointQuadtree
+ * and with several threads updating and querying it at once
+ *
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class ConcurrentPointQuadtreeTest {
+
+	private static final double SIDE = 100;
+	private static final double RADIUS = 5;
+	private static final int CAPACITY = 4;
+
+	private static final int THREADS = 4;
+	private static final int POINTS = 2000;
+	private static final int MOVES = 20000;
+
+	ConcurrentPointQuadtree<Location> quad;
+	Random random;
+
+	@Before
+	public void setUp() {
+		quad = new ConcurrentPointQuadtree<>(0, SIDE, SIDE, 0, CAPACITY, Trie.DEFAULT_MAX_DEPTH);
+		random = new Random(0);
+	}
+
+	/**
+	 * Used by a single thread, it finds the same points as a PointQuadtree
+	 */
+	@Test
+	public void testAgreesWithPointQuadtree() {
+		PointQuadtree<Location> other = new PointQuadtree<>(0, SIDE, SIDE, 0, CAPACITY);
+		List<Location> points = randomLocations(POINTS);
+
+		for(Location point: points) {
+			quad.insert(point);
+			other.insert(point);
+		}
+		for(Location point: points.subList(0, POINTS/2)) {
+			quad.delete(point);
+			other.delete(point);
+		}
+		for(Location point: points.subList(POINTS/2, 3*POINTS/4)) {
+			double oldX = point.getX();
+			double oldY = point.getY();
+			point.latitude = random.nextDouble()*SIDE;
+			point.longitude = random.nextDouble()*SIDE;
+			quad.move(point, oldX, oldY);
+			other.move(point, oldX, oldY);
+		}
+
+		assertEquals(other.getAll(),quad.getAll());
+		for(Location query: randomLocations(100)) {
+			assertEquals(other.findNear(query.getX(), query.getY(), RADIUS),
+					quad.findNear(query.getX(), query.getY(), RADIUS));
+			assertEquals(other.findInRect(query.getX(), query.getY(), query.getX()+RADIUS, query.getY()+RADIUS),
+					quad.findInRect(query.getX(), query.getY(), query.getX()+RADIUS, query.getY()+RADIUS));
+		}
+		assertNull(quad.find(new Location("", -1, -1)));
+	}
+
+	/**
+	 * Points outside the boundaries should raise an exception
+	 */
+	@Test(expected=PointOutOfBoundException.class)
+	public void testBoundariesOut() {
+		quad.insert(new Location("", SIDE+1, SIDE/2));
+	}
+
+	/**
+	 * Several threads insert and then delete their own points at once
+	 */
+	@Test
+	public void testConcurrentInsertsAndDeletes() throws InterruptedException {
+		List<List<Location>> owned = new ArrayList<>();
+		for(int t=0; t < THREADS; t++)
+			owned.add(randomLocations(POINTS));
+
+		runThreads(THREADS, t -> {
+			for(Location point: owned.get(t))
+				quad.insert(point);
+		});
+		assertEquals(THREADS*POINTS,quad.getAll().size());
+
+		runThreads(THREADS, t -> {
+			for(Location point: owned.get(t).subList(0, POINTS/2))
+				quad.delete(point);
+		});
+		assertEquals(THREADS*POINTS/2,quad.getAll().size());
+		for(List<Location> points: owned)
+			for(Location point: points.subList(POINTS/2, POINTS))
+				assertEquals(point,quad.find(point));
+	}
+
+	/**
+	 * Writers move their own points while readers query around points that stay put.
+	 * Readers must always find those, and moved points must be found once at their final position.
+	 */
+	@Test
+	public void testConcurrentMovesAndQueries() throws InterruptedException {
+		List<Location> still = randomLocations(POINTS);
+		List<List<Location>> owned = new ArrayList<>();
+		for(int t=0; t < THREADS; t++)
+			owned.add(randomLocations(POINTS/THREADS));
+
+		for(Location point: still)
+			quad.insert(point);
+		for(List<Location> points: owned)
+			for(Location point: points)
+				quad.insert(point);
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		List<Thread> readers = new ArrayList<>();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		for(int t=0; t < THREADS; t++) {
+			Thread reader = new Thread(() -> {
+				Random local = new Random();
+				try {
+					while(writing.get()) {
+						Location point = still.get(local.nextInt(still.size()));
+						assertTrue(quad.findNear(point.getX(), point.getY(), RADIUS).contains(point));
+					}
+				} catch(Throwable cause) {
+					failure.compareAndSet(null, cause);
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+
+		runThreads(THREADS, t -> {
+			Random local = new Random(1 + t); // not the seed of the still points, that moved points must not equal
+			List<Location> points = owned.get(t);
+			for(int i=0; i < MOVES; i++) {
+				Location point = points.get(local.nextInt(points.size()));
+				double oldX = point.getX();
+				double oldY = point.getY();
+				point.latitude = local.nextDouble()*SIDE;
+				point.longitude = local.nextDouble()*SIDE;
+				quad.move(point, oldX, oldY);
+			}
+		});
+		writing.set(false);
+		for(Thread reader: readers)
+			reader.join();
+
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+		for(List<Location> points: owned)
+			for(Location point: points) {
+				int[] count = new int[1];
+				quad.forEach(location -> { if(location == point) count[0]++; });
+				assertEquals(1,count[0]);
+				assertTrue(quad.findNear(point.getX(), point.getY(), 0).contains(point));
+			}
+	}
+
+	private interface Work {
+		void run(int thread) throws Exception;
+	}
+
+	/**
+	 * Run some work on several threads at once and wait for them,
+	 * rethrowing the first failure
+	 * @param threads	number of threads
+	 * @param work		to run, given the index of the thread
+	 */
+	static void runThreads(int threads, Work work) throws InterruptedException {
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> started = new ArrayList<>();
+
+		for(int t=0; t < threads; t++) {
+			int index = t;
+			Thread thread = new Thread(() -> {
+				try {
+					work.run(index);
+				} catch(Throwable cause) {
+					failure.compareAndSet(null, cause);
+				}
+			});
+			thread.start();
+			started.add(thread);
+		}
+		for(Thread thread: started)
+			thread.join();
+
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+	}
+
+	private List<Location> randomLocations(int size) {
+		List<Location> locations = new ArrayList<>();
+		for(int i=0; i < size; i++)
+			locations.add(new Location("", random.nextDouble()*SIDE, random.nextDouble()*SIDE));
+		return locations;
+	}
+}
@@ -0,0 +1,130 @@
+package rsa.quad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test on a GridIndex, against a PointQuadtree holding the same points
+ *
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class GridIndexTest {
+
+	private static final double SIDE = 100;
+	private static final double RADIUS = 5;
+	private static final int POINTS = 2000;
+
+	GridIndex<Location> index;
+	Random random;
+
+	@Before
+	public void setUp() {
+		index = new GridIndex<>(0, SIDE, SIDE, 0, RADIUS);
+		random = new Random(0);
+	}
+
+	/**
+	 * After inserts, deletes and moves, it finds the same points as a PointQuadtree,
+	 * with radii smaller, equal and larger than the cells
+	 */
+	@Test
+	public void testAgreesWithPointQuadtree() {
+		PointQuadtree<Location> other = new PointQuadtree<>(0, SIDE, SIDE, 0);
+		List<Location> points = randomLocations(POINTS);
+
+		for(Location point: points) {
+			index.insert(point);
+			other.insert(point);
+		}
+		for(Location point: points.subList(0, POINTS/2)) {
+			index.delete(point);
+			other.delete(point);
+		}
+		for(Location point: points.subList(POINTS/2, 3*POINTS/4)) {
+			double oldX = point.getX();
+			double oldY = point.getY();
+			point.latitude = random.nextDouble()*SIDE;
+			point.longitude = random.nextDouble()*SIDE;
+			index.move(point, oldX, oldY);
+			other.move(point, oldX, oldY);
+		}
+
+		assertEquals(POINTS/2,index.size());
+		assertEquals(other.getAll(),index.getAll());
+		for(Location query: randomLocations(100))
+			for(double radius: new double[] { RADIUS/2, RADIUS, 3*RADIUS }) {
+				assertEquals(other.findNear(query.getX(), query.getY(), radius),
+						index.findNear(query.getX(), query.getY(), radius));
+				assertEquals(other.findInRect(query.getX(), query.getY(), query.getX()+radius, query.getY()+radius),
+						index.findInRect(query.getX(), query.getY(), query.getX()+radius, query.getY()+radius));
+			}
+		assertEquals(other.findNear(SIDE/2, SIDE/2, SIDE),index.findNear(SIDE/2, SIDE/2, SIDE));
+	}
+
+	/**
+	 * Points on the boundaries and on the lines between cells are found
+	 */
+	@Test
+	public void testBoundaries() {
+		Location corner = new Location("corner", SIDE, SIDE);
+		Location line = new Location("line", RADIUS, RADIUS);
+
+		index.insert(corner);
+		index.insert(line);
+
+		assertSame(corner,index.find(new Location("", SIDE, SIDE)));
+		assertSame(line,index.find(new Location("", RADIUS, RADIUS)));
+		assertNull(index.find(new Location("", 0, 0)));
+		assertEquals(1,index.findNear(RADIUS/2, RADIUS/2, RADIUS).size());
+	}
+
+	/**
+	 * Points outside the boundaries should raise an exception
+	 */
+	@Test(expected=PointOutOfBoundException.class)
+	public void testBoundariesOut() {
+		index.insert(new Location("", -1, SIDE/2));
+	}
+
+	/**
+	 * Buckets are removed when they are left empty, also by moves to other cells
+	 */
+	@Test
+	public void testEmptyCells() {
+		Location point = new Location("point", RADIUS/2, RADIUS/2);
+		index.insert(point);
+		assertEquals(1,index.getCellCount());
+
+		point.latitude = SIDE/2;
+		index.move(point, RADIUS/2, RADIUS/2);
+		assertEquals(1,index.getCellCount());
+		assertSame(point,index.find(new Location("", SIDE/2, RADIUS/2)));
+
+		index.delete(point);
+		assertEquals(0,index.getCellCount());
+		assertEquals(0,index.size());
+	}
+
+	/**
+	 * Cells must have a positive size
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testCellSize() {
+		new GridIndex<Location>(0, SIDE, SIDE, 0, 0);
+	}
+
+	private List<Location> randomLocations(int size) {
+		List<Location> locations = new ArrayList<>();
+		for(int i=0; i < size; i++)
+			locations.add(new Location("location "+i, random.nextDouble()*SIDE, random.nextDouble()*SIDE));
+		return locations;
+	}
+}
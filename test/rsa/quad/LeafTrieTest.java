@@ -2,7 +2,9 @@ package rsa.quad;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
@@ -106,6 +108,66 @@ public class LeafTrieTest {
 		assertNull(leaf.find(CENTER));
 	}
 	
+	/**
+	 * Check that deleting a point keeps others with the same coordinates
+	 */
+	@Test
+	public void testDeleteCoincidentPoint() {
+		Location other = new Location("other", CENTER_X, CENTER_Y);
+
+		leaf.insert(CENTER);
+		leaf.insert(other);
+
+		leaf.delete(CENTER);
+		assertEquals(other,leaf.find(CENTER));
+	}
+
+	/**
+	 * Check that a moved point is found at its new coordinates only, and that replacing it keeps one point
+	 */
+	@Test
+	public void testMoveAndReplace() {
+		Location moved = new Location("moved", CENTER_X, CENTER_Y);
+		Location replacement = new Location("replacement", CENTER_X+1, CENTER_Y+1);
+
+		leaf.insert(moved);
+		moved.latitude = CENTER_X+1;
+		moved.longitude = CENTER_Y+1;
+		leaf.move(moved, CENTER_Y, CENTER_X);
+
+		assertNull(leaf.find(CENTER));
+		assertEquals(moved,leaf.find(replacement));
+
+		leaf.insertReplace(replacement);
+		leaf.collectAll(points);
+		assertEquals(Collections.singleton(replacement),points);
+	}
+
+	/**
+	 * Check that inserting a point again keeps it once, so a single delete removes it
+	 */
+	@Test
+	public void testReinsertAndDelete() {
+		leaf.insert(CENTER);
+		leaf.insert(CENTER);
+		assertEquals(1,leaf.size());
+
+		leaf.delete(CENTER);
+		assertNull(leaf.find(CENTER));
+	}
+
+	/**
+	 * Check that a leaf splits when its own capacity is exceeded
+	 */
+	@Test
+	public void testOwnCapacity() {
+		LeafTrie<Location> small = new LeafTrie<Location>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y,2);
+		
+		assertTrue(small.insert(new Location("",CENTER_X-1,CENTER_Y-1)) instanceof LeafTrie);
+		assertTrue(small.insert(new Location("",CENTER_X+1,CENTER_Y+1)) instanceof LeafTrie);
+		assertTrue(small.insert(CENTER) instanceof NodeTrie);
+	}
+
 	private static final Random random = new Random();
 
 	/**
@@ -0,0 +1,175 @@
+package rsa.quad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test on a MortonIndex, against a PointQuadtree holding the same points
+ *
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class MortonIndexTest {
+
+	private static final double SIDE = 100;
+	private static final double RADIUS = 5;
+	private static final int POINTS = 2000;
+
+	MortonIndex<Location> index;
+	Random random;
+
+	@Before
+	public void setUp() {
+		index = new MortonIndex<>(0, SIDE, SIDE, 0);
+		random = new Random(0);
+	}
+
+	/**
+	 * Codes interleave the bits of the scaled coordinates, x first
+	 */
+	@Test
+	public void testInterleave() {
+		assertEquals(0L,MortonIndex.interleave(0, 0));
+		assertEquals(1L,MortonIndex.interleave(1, 0));
+		assertEquals(2L,MortonIndex.interleave(0, 1));
+		assertEquals(0b111001L,MortonIndex.interleave(0b101, 0b110));
+		assertEquals(Long.MAX_VALUE >>> 1,MortonIndex.interleave((1L << MortonIndex.BITS) - 1, (1L << MortonIndex.BITS) - 1));
+	}
+
+	/**
+	 * After inserts, deletes and moves, it finds the same points as a PointQuadtree
+	 */
+	@Test
+	public void testAgreesWithPointQuadtree() {
+		PointQuadtree<Location> other = new PointQuadtree<>(0, SIDE, SIDE, 0);
+		List<Location> points = randomLocations(POINTS);
+
+		for(Location point: points) {
+			index.insert(point);
+			other.insert(point);
+		}
+		for(Location point: points.subList(0, POINTS/2)) {
+			index.delete(point);
+			other.delete(point);
+		}
+		for(Location point: points.subList(POINTS/2, 3*POINTS/4)) {
+			double oldX = point.getX();
+			double oldY = point.getY();
+			point.latitude = random.nextDouble()*SIDE;
+			point.longitude = random.nextDouble()*SIDE;
+			index.move(point, oldX, oldY);
+			other.move(point, oldX, oldY);
+		}
+
+		assertEquals(POINTS/2,index.size());
+		assertEquals(other.getAll(),index.getAll());
+		for(Location query: randomLocations(100)) {
+			assertEquals(other.findNear(query.getX(), query.getY(), RADIUS),
+					index.findNear(query.getX(), query.getY(), RADIUS));
+			assertEquals(other.findInRect(query.getX(), query.getY(), query.getX()+RADIUS, query.getY()+RADIUS),
+					index.findInRect(query.getX(), query.getY(), query.getX()+RADIUS, query.getY()+RADIUS));
+		}
+		assertEquals(other.findNear(SIDE/2, SIDE/2, SIDE),index.findNear(SIDE/2, SIDE/2, SIDE));
+	}
+
+	/**
+	 * Deleting every point empties the chunks, that are refilled by later inserts
+	 */
+	@Test
+	public void testDeleteAll() {
+		List<Location> points = randomLocations(POINTS);
+		for(Location point: points)
+			index.insert(point);
+		for(Location point: points)
+			index.delete(point);
+
+		assertEquals(0,index.size());
+		assertEquals(0,index.findNear(SIDE/2, SIDE/2, SIDE).size());
+
+		for(Location point: points)
+			index.insert(point);
+		assertEquals(POINTS,index.getAll().size());
+		for(Location point: points)
+			assertSame(point,index.find(point));
+	}
+
+	/**
+	 * Points on the boundaries are indexed, and found by exact coordinates
+	 */
+	@Test
+	public void testBoundaries() {
+		Location corner = new Location("corner", SIDE, SIDE);
+		Location origin = new Location("origin", 0, 0);
+
+		index.insert(corner);
+		index.insert(origin);
+
+		assertSame(corner,index.find(new Location("", SIDE, SIDE)));
+		assertSame(origin,index.find(new Location("", 0, 0)));
+		assertNull(index.find(new Location("", SIDE/2, SIDE/2)));
+		assertEquals(2,index.findNear(SIDE, 0, SIDE).size());
+	}
+
+	/**
+	 * Points outside the boundaries should raise an exception
+	 */
+	@Test(expected=PointOutOfBoundException.class)
+	public void testBoundariesOut() {
+		index.insert(new Location("", SIDE/2, SIDE+1));
+	}
+
+	/**
+	 * Points with the same coordinates are kept, and deleted one at a time
+	 */
+	@Test
+	public void testSameCoordinates() {
+		Location first = new Location("first", SIDE/2, SIDE/2);
+		Location second = new Location("second", SIDE/2, SIDE/2);
+
+		index.insert(first);
+		index.insert(second);
+		assertEquals(2,index.findNear(SIDE/2, SIDE/2, 0).size());
+
+		index.delete(first);
+		assertEquals(1,index.size());
+		assertSame(second,index.find(first));
+	}
+
+	/**
+	 * Moving points forward and backward in the code order keeps the others in place
+	 */
+	@Test
+	public void testMove() {
+		List<Location> points = randomLocations(100);
+		for(Location point: points)
+			index.insert(point);
+
+		Location moved = points.get(0);
+		for(double[] position: new double[][] {{0, 0}, {SIDE, SIDE}, {SIDE/3, SIDE/3}}) {
+			double oldX = moved.getX();
+			double oldY = moved.getY();
+			moved.latitude = position[0];
+			moved.longitude = position[1];
+			index.move(moved, oldX, oldY);
+
+			assertEquals(100,index.size());
+			assertSame(moved,index.find(new Location("", position[0], position[1])));
+			for(Location point: points)
+				assertEquals(1,index.findNear(point.getX(), point.getY(), 0).stream().filter(found -> found == point).count());
+		}
+	}
+
+	private List<Location> randomLocations(int size) {
+		List<Location> locations = new ArrayList<>();
+		for(int i=0; i < size; i++)
+			locations.add(new Location("location "+i, random.nextDouble()*SIDE, random.nextDouble()*SIDE));
+		return locations;
+	}
+}
@@ -0,0 +1,483 @@
+package rsa.quad;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks on a PointQuadtree, run as a Java application rather than as a test suite.
+ * Each benchmark prints a table of throughputs in operations per second,
+ * taking the best of a few runs to discount JIT warm-up.
+ * Give the names of the benchmarks to run as arguments, or none to run them all.
+ *
+ * @author João Lucas Pires, Sara Ferreira
+ */
+public class PointQuadtreeBenchmark {
+
+	private static final double SIDE = 1000;
+	private static final double RADIUS = 10;
+
+	private static final int POINTS = 200000;
+	private static final int LARGE_POINTS = 1000000;
+	private static final int QUERIES = 100000;
+	private static final int RUNS = 5;
+
+	private static final int[] CAPACITIES = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512 };
+	private static final int[] LEAF_CAPACITIES = { 8, 32, 128, 512 };
+	private static final int[] LARGE_CAPACITIES = { 128, 512, 2048, 8192 };
+
+	private static final int OPERATIONS_PER_THREAD = 200000;
+	private static final int[] BATCH_SIZES = { 16, 64, 256, 1024 };
+	private static final int MOVES_PER_QUERY = 1;
+	private static final int[] DENSITIES = { 10000, 100000, 1000000 };
+
+	private static final Random random = new Random(0);
+
+	/**
+	 * Sum of the results of the benchmarked operations, printed at the end
+	 * so that the JIT can't discard them as dead code.
+	 */
+	private static long checksum = 0;
+
+	public static void main(String[] args) {
+		List<String> selected = Arrays.asList(args);
+
+		if(selected.isEmpty() || selected.contains("capacity"))
+			benchmarkCapacity();
+		if(selected.isEmpty() || selected.contains("nodes"))
+			benchmarkNodes();
+		if(selected.isEmpty() || selected.contains("leaves"))
+			benchmarkLeaves();
+		if(selected.isEmpty() || selected.contains("concurrent"))
+			benchmarkConcurrent();
+		if(selected.isEmpty() || selected.contains("bulk"))
+			benchmarkBulk();
+		if(selected.isEmpty() || selected.contains("batch"))
+			benchmarkBatch();
+		if(selected.isEmpty() || selected.contains("morton"))
+			benchmarkMorton();
+		if(selected.isEmpty() || selected.contains("grid"))
+			benchmarkGrid();
+		if(selected.isEmpty() || selected.contains("lookup"))
+			benchmarkLookup();
+
+		System.out.println("checksum "+checksum);
+	}
+
+	/**
+	 * Sweep the leaf capacity against insert and near query throughput,
+	 * on uniformly distributed points.
+	 */
+	static void benchmarkCapacity() {
+		Location[] points = randomLocations(POINTS);
+		Location[] queries = randomLocations(QUERIES);
+
+		System.out.println("capacity\tinsert/s\tfindNear/s");
+		for(int capacity: CAPACITIES) {
+			PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0, capacity);
+
+			double inserts = throughput(points.length, () -> {
+				PointQuadtree<Location> other = new PointQuadtree<>(0, SIDE, SIDE, 0, capacity);
+				for(Location point: points)
+					other.insert(point);
+			});
+			for(Location point: points)
+				quad.insert(point);
+			double queriesPerSecond = throughput(queries.length, () -> countNear(quad, queries));
+
+			System.out.printf("%d\t%.0f\t%.0f%n", capacity, inserts, queriesPerSecond);
+		}
+	}
+
+	/**
+	 * Insert and find throughput on a large quadtree with the default capacity,
+	 * dominated by the descent through the nodes, and the heap it retains.
+	 */
+	static void benchmarkNodes() {
+		Location[] points = randomLocations(LARGE_POINTS);
+		PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0);
+
+		double inserts = throughput(points.length, () -> {
+			PointQuadtree<Location> other = new PointQuadtree<>(0, SIDE, SIDE, 0);
+			for(Location point: points)
+				other.insert(point);
+		});
+		long before = usedMemory();
+		for(Location point: points)
+			quad.insert(point);
+		long retained = usedMemory() - before;
+		double finds = throughput(points.length, () -> {
+			int found = 0;
+			for(Location point: points)
+				if(quad.find(point) != null)
+					found++;
+			checksum += found;
+		});
+
+		System.out.println("points\tnodes\tbytes/node\tinsert/s\tfind/s");
+		System.out.printf("%d\t%d\t%d\t%.0f\t%.0f%n", points.length, quad.getNodeCount(),
+				retained / quad.getNodeCount(), inserts, finds);
+	}
+
+	/**
+	 * Compare the kinds of leaves on insert and near query throughput,
+	 * for a few leaf capacities.
+	 */
+	static void benchmarkLeaves() {
+		Location[] points = randomLocations(POINTS);
+		Location[] queries = randomLocations(QUERIES);
+
+		System.out.println("leaves\tcapacity\tinsert/s\tfindNear/s");
+		for(int capacity: LEAF_CAPACITIES)
+			for(Trie.LeafKind leafKind: Trie.LeafKind.values()) {
+				PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0, capacity, Trie.DEFAULT_MAX_DEPTH, leafKind);
+
+				double inserts = throughput(points.length, () -> {
+					PointQuadtree<Location> other = new PointQuadtree<>(0, SIDE, SIDE, 0, capacity, Trie.DEFAULT_MAX_DEPTH, leafKind);
+					for(Location point: points)
+						other.insert(point);
+				});
+				for(Location point: points)
+					quad.insert(point);
+				double queriesPerSecond = throughput(queries.length, () -> countNear(quad, queries));
+
+				System.out.printf("%s\t%d\t%.0f\t%.0f%n", leafKind, capacity, inserts, queriesPerSecond);
+			}
+	}
+
+	/**
+	 * Compare the kinds of leaves on find, delete and insertReplace throughput,
+	 * for large leaf capacities, where scanning a leaf for a point is expensive.
+	 * Each point deleted is inserted back, to keep the tree unchanged.
+	 */
+	static void benchmarkLookup() {
+		Location[] points = randomLocations(POINTS);
+		Location[] targets = new Location[QUERIES];
+		Location[] replacements = new Location[QUERIES];
+		for(int i=0; i < QUERIES; i++) {
+			targets[i] = points[random.nextInt(POINTS)];
+			replacements[i] = new Location("", targets[i].latitude, targets[i].longitude);
+		}
+
+		System.out.println("leaves\tcapacity\tfind/s\tdelete/s\tinsertReplace/s");
+		for(int capacity: LARGE_CAPACITIES)
+			for(Trie.LeafKind leafKind: Trie.LeafKind.values()) {
+				PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0, capacity, Trie.DEFAULT_MAX_DEPTH, leafKind);
+				for(Location point: points)
+					quad.insert(point);
+
+				double finds = throughput(QUERIES, () -> {
+					int found = 0;
+					for(Location target: targets)
+						if(quad.find(target) != null)
+							found++;
+					checksum += found;
+				});
+				double deletes = throughput(QUERIES, () -> {
+					for(Location target: targets) {
+						quad.delete(target);
+						quad.insert(target);
+					}
+				});
+				double replaces = throughput(QUERIES, () -> {
+					for(int i=0; i < QUERIES; i++)
+						quad.insertReplace(i % 2 == 0 ? replacements[i] : targets[i]);
+				});
+
+				System.out.printf("%s\t%d\t%.0f\t%.0f\t%.0f%n", leafKind, capacity, finds, deletes, replaces);
+			}
+	}
+
+	/**
+	 * Throughput of a mix of moves and near queries from 1 to as many threads as there are processors,
+	 * on a ConcurrentPointQuadtree and on a PointQuadtree behind a single lock.
+	 * Each thread moves its own share of the points, and each tree has its own copy of them.
+	 * Points are never changed once indexed, as other threads may be reading their coordinates:
+	 * a move inserts a new point at the new coordinates and deletes the old one, 
+	 * and the points are shared through atomic arrays, to publish the new ones safely.
+	 */
+	static void benchmarkConcurrent() {
+		Location[] points = randomLocations(POINTS);
+		AtomicReferenceArray<Location> originals = new AtomicReferenceArray<>(POINTS);
+		AtomicReferenceArray<Location> copies = new AtomicReferenceArray<>(POINTS);
+		ConcurrentPointQuadtree<Location> concurrent = new ConcurrentPointQuadtree<>(0, SIDE, SIDE, 0);
+		PointQuadtree<Location> locked = new PointQuadtree<>(0, SIDE, SIDE, 0);
+		for(int i=0; i < POINTS; i++) {
+			originals.set(i, points[i]);
+			copies.set(i, new Location(points[i].name, points[i].latitude, points[i].longitude));
+			concurrent.insert(originals.get(i));
+			locked.insert(copies.get(i));
+		}
+
+		System.out.println("threads\tconcurrent ops/s\tlocked ops/s");
+		for(int threads=1; threads <= Runtime.getRuntime().availableProcessors(); threads++) {
+			int count = threads;
+			double lockFree = throughput(threads * OPERATIONS_PER_THREAD, () -> runThreads(count, thread ->
+				mixedWork(originals, thread, count,
+					(point, moved) -> { concurrent.insert(moved); concurrent.delete(point); },
+					query -> concurrent.forEachNear(query.getX(), query.getY(), RADIUS, point -> {}))));
+			double globalLock = throughput(threads * OPERATIONS_PER_THREAD, () -> runThreads(count, thread ->
+				mixedWork(copies, thread, count,
+					(point, moved) -> { synchronized(locked) { locked.insert(moved); locked.delete(point); } },
+					query -> { synchronized(locked) { locked.forEachNear(query.getX(), query.getY(), RADIUS, point -> {}); } })));
+
+			System.out.printf("%d\t%.0f\t%.0f%n", threads, lockFree, globalLock);
+		}
+	}
+
+	private interface Mover {
+		void move(Location point, Location moved);
+	}
+
+	/**
+	 * Moves and near queries performed by one of several threads
+	 * @param points	shared by all threads, replaced by their moved copies
+	 * @param thread	index of this thread, selecting the points it moves
+	 * @param threads	number of threads
+	 * @param mover		replacing a point by its moved copy on the tree
+	 * @param querier	querying around a location on the tree
+	 */
+	static void mixedWork(AtomicReferenceArray<Location> points, int thread, int threads, Mover mover, Consumer<Location> querier) {
+		Random local = new Random(thread);
+		int share = points.length() / threads;
+		for(int i=0; i < OPERATIONS_PER_THREAD; i++) {
+			if(i % (MOVES_PER_QUERY+1) < MOVES_PER_QUERY) {
+				int index = thread*share + local.nextInt(share);
+				Location point = points.get(index);
+				Location moved = new Location(point.name,
+						Math.max(0, Math.min(SIDE, point.latitude + local.nextGaussian())),
+						Math.max(0, Math.min(SIDE, point.longitude + local.nextGaussian())));
+				mover.move(point, moved);
+				points.set(index, moved);
+			}
+			else
+				querier.accept(points.get(local.nextInt(points.length())));
+		}
+	}
+
+	/**
+	 * Run a task on several threads at once and wait for them
+	 * @param threads	number of threads
+	 * @param task		to run, given the index of the thread
+	 */
+	static void runThreads(int threads, IntConsumer task) {
+		Thread[] started = new Thread[threads];
+		for(int t=0; t < threads; t++) {
+			int index = t;
+			started[t] = new Thread(() -> task.accept(index));
+			started[t].start();
+		}
+		try {
+			for(Thread thread: started)
+				thread.join();
+		} catch(InterruptedException cause) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Building a large quadtree by inserting the points one by one and by a bulk load.
+	 */
+	static void benchmarkBulk() {
+		Location[] points = randomLocations(LARGE_POINTS);
+		List<Location> list = Arrays.asList(points);
+
+		double inserts = throughput(points.length, () -> {
+			PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0);
+			for(Location point: points)
+				quad.insert(point);
+			checksum += quad.getNodeCount();
+		});
+		double loads = throughput(points.length, () -> {
+			PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0);
+			quad.bulkLoad(list);
+			checksum += quad.getNodeCount();
+		});
+
+		System.out.println("points\tinsert/s\tbulkLoad/s");
+		System.out.printf("%d\t%.0f\t%.0f%n", points.length, inserts, loads);
+	}
+
+	/**
+	 * Inserting and then deleting points in batches of a few sizes, against doing it one by one,
+	 * as the pings of a network frame would be ingested.
+	 * The points of a scattered batch are spread over the whole area, those of a clustered batch over a square
+	 * of side RADIUS, as the rides in a busy street would be.
+	 */
+	static void benchmarkBatch() {
+		Location[] points = randomLocations(POINTS);
+		PointQuadtree<Location> quad = new PointQuadtree<>(0, SIDE, SIDE, 0);
+		quad.insertAll(Arrays.asList(points));
+
+		System.out.println("batch	scattered inserts+deletes/s	clustered inserts+deletes/s");
+		for(int size: BATCH_SIZES) {
+			Location[] clustered = new Location[size];
+			for(int i=0; i < size; i++)
+				clustered[i] = new Location("", SIDE/2 + random.nextDouble()*RADIUS, SIDE/2 + random.nextDouble()*RADIUS);
+
+			double[] scatteredOperations = compareBatch(quad, Arrays.asList(randomLocations(size)));
+			double[] clusteredOperations = compareBatch(quad, Arrays.asList(clustered));
+
+			System.out.printf("%d	%.0f	(one by one %.0f)	%.0f	(one by one %.0f)%n",
+					size, scatteredOperations[0], scatteredOperations[1], clusteredOperations[0], clusteredOperations[1]);
+		}
+	}
+
+	/**
+	 * Throughput of inserting and deleting the given points in a single batch and one by one.
+	 * @param quad in which the points are inserted
+	 * @param batch of points to insert and delete
+	 * @return batched and one by one operations per second
+	 */
+	static double[] compareBatch(PointQuadtree<Location> quad, List<Location> batch) {
+		int size = batch.size();
+
+		double single = throughput(2*QUERIES, () -> {
+			for(int done=0; done < QUERIES; done += size) {
+				for(Location point: batch)
+					quad.insert(point);
+				for(Location point: batch)
+					quad.delete(point);
+			}
+		});
+		double batched = throughput(2*QUERIES, () -> {
+			for(int done=0; done < QUERIES; done += size) {
+				quad.insertAll(batch);
+				quad.deleteAll(batch);
+			}
+		});
+		return new double[] { batched, single };
+	}
+
+	/**
+	 * A PointQuadtree against a MortonIndex, on a medium and a large number of points.
+	 */
+	static void benchmarkMorton() {
+		Map<String,Supplier<SpatialIndex<Location>>> indexes = new LinkedHashMap<>();
+		indexes.put("quadtree", () -> new PointQuadtree<>(0, SIDE, SIDE, 0));
+		indexes.put("morton", () -> new MortonIndex<>(0, SIDE, SIDE, 0));
+
+		System.out.println("index\tpoints\tinsert/s\tfindNear/s\tmove/s");
+		for(int size: new int[] { POINTS, LARGE_POINTS })
+			compareIndexes(size, indexes);
+	}
+
+	/**
+	 * A GridIndex with cells as large as the query radius, against a PointQuadtree and a MortonIndex,
+	 * on the same area with a few numbers of points (densities).
+	 */
+	static void benchmarkGrid() {
+		Map<String,Supplier<SpatialIndex<Location>>> indexes = new LinkedHashMap<>();
+		indexes.put("quadtree", () -> new PointQuadtree<>(0, SIDE, SIDE, 0));
+		indexes.put("morton", () -> new MortonIndex<>(0, SIDE, SIDE, 0));
+		indexes.put("grid", () -> new GridIndex<>(0, SIDE, SIDE, 0, RADIUS));
+
+		System.out.println("index\tpoints\tinsert/s\tfindNear/s\tmove/s");
+		for(int size: DENSITIES)
+			compareIndexes(size, indexes);
+	}
+
+	/**
+	 * Insert, near query and move throughput of a few spatial indexes, on the same uniformly distributed points.
+	 * Each index has its own copy of the points, as moves change them.
+	 * @param size		number of points
+	 * @param indexes	constructors of empty indexes, by name
+	 */
+	static void compareIndexes(int size, Map<String,Supplier<SpatialIndex<Location>>> indexes) {
+		Location[] points = randomLocations(size);
+		Location[] queries = randomLocations(QUERIES);
+
+		for(Map.Entry<String,Supplier<SpatialIndex<Location>>> entry: indexes.entrySet()) {
+			Location[] copies = new Location[size];
+			for(int i=0; i < size; i++)
+				copies[i] = new Location("", points[i].latitude, points[i].longitude);
+
+			double inserts = throughput(size, () -> {
+				SpatialIndex<Location> other = entry.getValue().get();
+				for(Location point: copies)
+					other.insert(point);
+			});
+			SpatialIndex<Location> index = entry.getValue().get();
+			for(Location point: copies)
+				index.insert(point);
+			double queriesPerSecond = throughput(queries.length, () -> countNear(index, queries));
+			double moves = throughput(QUERIES, () -> {
+				for(int i=0; i < QUERIES; i++) {
+					Location point = copies[i % size];
+					double oldX = point.getX();
+					double oldY = point.getY();
+					step(point);
+					index.move(point, oldX, oldY);
+				}
+			});
+
+			System.out.printf("%s\t%d\t%.0f\t%.0f\t%.0f%n", entry.getKey(), size, inserts, queriesPerSecond, moves);
+		}
+	}
+
+	/**
+	 * Move a location by a small random step, inside the benchmark area
+	 * @param location	to move
+	 */
+	static void step(Location location) {
+		location.latitude = Math.max(0, Math.min(SIDE, location.latitude + random.nextGaussian()));
+		location.longitude = Math.max(0, Math.min(SIDE, location.longitude + random.nextGaussian()));
+	}
+
+	/**
+	 * Heap in use after a garbage collection, as an estimate of retained memory
+	 * @return bytes in use
+	 */
+	static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int gc=0; gc < 3; gc++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Count the points within RADIUS of each query, without collecting them
+	 * @param quad		to query
+	 * @param queries	centers of the queries
+	 */
+	static void countNear(SpatialIndex<Location> quad, Location[] queries) {
+		int[] count = new int[1];
+		for(Location query: queries)
+			quad.forEachNear(query.getX(), query.getY(), RADIUS, point -> count[0]++);
+		checksum += count[0];
+	}
+
+	/**
+	 * Best throughput of a task over a few runs
+	 * @param operations	performed by each run of the task
+	 * @param task			to run
+	 * @return operations per second
+	 */
+	static double throughput(int operations, Runnable task) {
+		long best = Long.MAX_VALUE;
+		for(int run=0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			task.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return operations * 1E9 / best;
+	}
+
+	/**
+	 * Uniformly distributed locations over the benchmark area
+	 * @param size	number of locations
+	 * @return array of locations
+	 */
+	static Location[] randomLocations(int size) {
+		Location[] locations = new Location[size];
+		for(int i=0; i < size; i++)
+			locations[i] = new Location("", random.nextDouble()*SIDE, random.nextDouble()*SIDE);
+		return locations;
+	}
+}
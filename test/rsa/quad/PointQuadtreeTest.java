@@ -2,15 +2,21 @@ package rsa.quad;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -107,6 +113,25 @@ public class PointQuadtreeTest {
 		 }
 	}
 
+	/**
+	 * Points outside the boundaries are rejected by tryInsert, and the message of the exception is kept
+	 */
+	@Test
+	public void testTryInsert() {
+		Location center = new Location("center", CENTER_X, CENTER_Y);
+		
+		assertFalse(quad.tryInsert(new Location("too high", TOO_LARGE_COORDINATE, CENTER_Y)));
+		assertTrue(quad.tryInsert(center));
+		assertEquals(Collections.singleton(center),quad.getAll());
+		
+		try {
+			quad.insert(new Location("too right", CENTER_X, TOO_LARGE_COORDINATE));
+			fail("Unexpected");
+		} catch(PointOutOfBoundException cause) {
+			assertNotNull(cause.getMessage());
+		}
+	}
+
 	/**
 	 * Points on the boundaries should not raise exceptions
 	 */
@@ -182,6 +207,351 @@ public class PointQuadtreeTest {
 	}
 	
 	
+	/**
+	 * Check that a moved point is found at its new position and not at the old one
+	 */
+	@Test
+	public void testMove() {
+		checkAroundCenter(3,29);
+		Location moving = new Location("moving", CENTER_Y, CENTER_X);
+		quad.insert(moving);
+
+		moving.latitude  = TOP_LEFT_Y - SMALL_RADIUS;
+		moving.longitude = TOP_LEFT_X + SMALL_RADIUS;
+		quad.move(moving, CENTER_X, CENTER_Y);
+
+		assertEquals(29,quad.findNear(CENTER_X, CENTER_Y, 3).size());
+		assertEquals(moving,quad.find(moving));
+		assertEquals(1,quad.findNear(moving.getX(), moving.getY(), 0.5).size());
+		assertEquals(49+1,quad.getAll().size());
+	}
+
+	/**
+	 * Check that a point moved inside its own leaf is still found
+	 */
+	@Test
+	public void testMoveInsideLeaf() {
+		Location moving = new Location("moving", CENTER_Y, CENTER_X);
+		quad.insert(moving);
+
+		moving.latitude  = CENTER_Y + SMALL_RADIUS;
+		quad.move(moving, CENTER_X, CENTER_Y);
+
+		assertEquals(moving,quad.find(moving));
+		quad.delete(moving);
+		assertEquals(0,quad.getAll().size());
+	}
+
+	/**
+	 * Check that nodes collapse back into leaves when points are deleted
+	 */
+	@Test
+	public void testCollapseOnDelete() {
+		assertEquals(5,quad.getNodeCount());
+		assertEquals(1,quad.getDepth());
+
+		checkAroundCenter(3,29);
+		assertTrue(quad.getNodeCount() > 5);
+		assertTrue(quad.getDepth() > 1);
+
+		for(Location location: quad.getAll())
+			quad.delete(location);
+
+		assertEquals(0,quad.getAll().size());
+		assertEquals(1,quad.getNodeCount());
+		assertEquals(0,quad.getDepth());
+
+		checkAroundCenter(3,29);
+	}
+
+	/**
+	 * Check that a node doesn't collapse while its leaves hold as many points as the capacity
+	 */
+	@Test
+	public void testCollapseBelowCapacity() {
+		for(int i=0; i <= CAPACITY; i++)
+			quad.insert(new Location("", TOP_LEFT_Y - i*0.1, TOP_LEFT_X + i*0.1));
+		int nodes = quad.getNodeCount();
+
+		quad.delete(quad.findNearest(TOP_LEFT_X, TOP_LEFT_Y, 1).get(0));
+		assertEquals(nodes,quad.getNodeCount());
+
+		quad.delete(quad.findNearest(TOP_LEFT_X, TOP_LEFT_Y, 1).get(0));
+		assertTrue(quad.getNodeCount() < nodes);
+		assertEquals(CAPACITY-1,quad.getAll().size());
+	}
+
+	/**
+	 * Check that a snapshot keeps the points it had while the quadtree changes
+	 */
+	@Test
+	public void testSnapshot() {
+		checkAroundCenter(3,29);
+		Location moving = new Location("moving", CENTER_Y, CENTER_X);
+		quad.insert(moving);
+		Set<Location> before = quad.getAll();
+		int nodes = quad.getNodeCount();
+
+		PointQuadtree<Location> snapshot = quad.snapshot();
+		for(Location location: quad.findNear(CENTER_X, CENTER_Y, 1))
+			if(location != moving)
+				quad.delete(location);
+		quad.insert(new Location("",TOP_LEFT_Y,TOP_LEFT_X));
+		moving.latitude = BOTTOM_RIGHT_Y;
+		quad.move(moving, CENTER_X, CENTER_Y);
+
+		assertEquals(before.size()+1-5,quad.getAll().size());
+		assertEquals(before.size(),snapshot.getAll().size());
+		assertEquals(nodes,snapshot.getNodeCount());
+		assertEquals(0,snapshot.findNear(TOP_LEFT_X, TOP_LEFT_Y, 0.5).size());
+		assertEquals(6,snapshot.findInRect(CENTER_X-1, CENTER_Y, CENTER_X+1, CENTER_Y+1).size());
+
+		PointQuadtree<Location> later = quad.snapshot();
+		quad.delete(moving);
+		assertEquals(moving,later.find(moving));
+		assertNull(quad.find(moving));
+	}
+
+	/**
+	 * A snapshot can't be changed
+	 */
+	@Test(expected=UnsupportedOperationException.class)
+	public void testSnapshotIsReadOnly() {
+		quad.snapshot().insert(new Location("",CENTER_Y,CENTER_X));
+	}
+
+	private static final int BULK = 20000;
+
+	/**
+	 * Check that a bulk load builds the same tree as inserting the points one by one,
+	 * with enough points to be built in parallel
+	 */
+	@Test
+	public void testBulkLoad() {
+		Random random = new Random(0);
+		List<Location> points = new ArrayList<>();
+		for(int i=0; i < BULK; i++)
+			points.add(new Location("", BOTTOM_RIGHT_Y + random.nextDouble()*(TOP_LEFT_Y-BOTTOM_RIGHT_Y),
+					TOP_LEFT_X + random.nextDouble()*(BOTTOM_RIGHT_X-TOP_LEFT_X)));
+
+		PointQuadtree<Location> bulk = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		bulk.bulkLoad(points);
+		for(Location point: points)
+			quad.insert(point);
+
+		assertEquals(quad.getAll(),bulk.getAll());
+		assertEquals(quad.getNodeCount(),bulk.getNodeCount());
+		assertEquals(quad.getDepth(),bulk.getDepth());
+		assertEquals(quad.findNear(CENTER_X, CENTER_Y, SMALL_RADIUS),bulk.findNear(CENTER_X, CENTER_Y, SMALL_RADIUS));
+	}
+
+	/**
+	 * Check that a bulk load keeps the points already in the tree,
+	 * and that it doesn't change the tree if a point is out of bounds
+	 */
+	@Test
+	public void testBulkLoadKeepsPoints() {
+		checkAroundCenter(1,5);
+		List<Location> more = new ArrayList<>();
+		for(int x=CENTER_X-3; x <= CENTER_X+3; x++)
+			for(int y=CENTER_Y-3; y <= CENTER_Y+3; y++)
+				if(Math.abs(x-CENTER_X) > 1 || Math.abs(y-CENTER_Y) > 1)
+					more.add(new Location("",x,y));
+
+		quad.bulkLoad(more);
+		assertEquals(49,quad.getAll().size());
+		assertEquals(29,quad.findNear(CENTER_X, CENTER_Y, 3).size());
+
+		more.add(new Location("",TOO_LARGE_COORDINATE,CENTER_X));
+		try {
+			quad.bulkLoad(more);
+			fail("Exception expected");
+		} catch(PointOutOfBoundException cause) {
+			assertEquals(49,quad.getAll().size());
+		}
+	}
+
+	/**
+	 * Check that a bulk load of points already in the tree loads them once,
+	 * so the tree isn't split further and a single delete removes each of them
+	 */
+	@Test
+	public void testBulkLoadPointsAlreadyIn() {
+		List<Location> points = new ArrayList<>();
+		for(int i=0; i < CAPACITY; i++)
+			points.add(new Location("", CENTER_Y, CENTER_X + i*0.01));
+		quad.bulkLoad(points);
+		int nodes = quad.getNodeCount();
+
+		quad.bulkLoad(points);
+		assertEquals(nodes,quad.getNodeCount());
+		for(Location point: points)
+			quad.delete(point);
+		assertEquals(0,quad.getAll().size());
+	}
+
+	/**
+	 * A quadtree set to grow takes points outside its boundaries in every direction,
+	 * including points on the edges of the old root that the new root assigns to another quadrant
+	 */
+	@Test
+	public void testAutoGrow() {
+		quad.setAutoGrow(true);
+		List<Location> points = new ArrayList<>();
+		points.add(new Location("bottom edge", BOTTOM_RIGHT_Y, CENTER_X));
+		points.add(new Location("left edge", CENTER_Y, TOP_LEFT_X));
+		points.add(new Location("bottom left", BOTTOM_RIGHT_Y, TOP_LEFT_X));
+		points.add(new Location("too left and too low", TOO_SMALL_COORDINATE, TOO_SMALL_COORDINATE));
+		points.add(new Location("too high", TOO_LARGE_COORDINATE, CENTER_X));
+		points.add(new Location("too right", CENTER_Y, TOO_LARGE_COORDINATE));
+		points.add(new Location("far away", -10*TOO_LARGE_COORDINATE, 10*TOO_LARGE_COORDINATE));
+		
+		for(Location point: points)
+			quad.insert(point);
+		
+		double[] bounds = quad.getBounds();
+		assertTrue(bounds[0] <= TOO_SMALL_COORDINATE && bounds[2] >= 10*TOO_LARGE_COORDINATE);
+		assertTrue(bounds[3] <= -10*TOO_LARGE_COORDINATE && bounds[1] >= TOO_LARGE_COORDINATE);
+		assertEquals(new HashSet<>(points),quad.getAll());
+		for(Location point: points)
+			assertEquals(point,quad.find(point));
+		
+		for(Location point: points)
+			quad.delete(point);
+		assertEquals(0,quad.getAll().size());
+	}
+	
+	/**
+	 * By default a quadtree doesn't grow, and one set to grow keeps the depth of the tries it had
+	 */
+	@Test
+	public void testAutoGrowDepth() {
+		assertFalse(quad.isAutoGrow());
+		quad.setAutoGrow(true);
+		for(int i=0; i < 4*CAPACITY; i++)
+			quad.insert(new Location("point "+i, CENTER_Y + i/(8.0*CAPACITY), CENTER_X + i/(8.0*CAPACITY)));
+		int nodes = quad.getNodeCount();
+		int depth = quad.getDepth();
+		
+		quad.insert(new Location("too right", CENTER_Y, TOO_LARGE_COORDINATE));
+		
+		assertEquals(nodes + 4,quad.getNodeCount());
+		assertEquals(depth + 1,quad.getDepth());
+	}
+	
+	/**
+	 * Points moved out of the boundaries of a quadtree set to grow are found at their new position only
+	 */
+	@Test
+	public void testAutoGrowMove() {
+		quad.setAutoGrow(true);
+		Location point = new Location("moving", BOTTOM_RIGHT_Y, TOP_LEFT_X);
+		quad.insert(point);
+		
+		point.latitude = TOO_SMALL_COORDINATE;
+		point.longitude = TOO_LARGE_COORDINATE;
+		quad.move(point, TOP_LEFT_X, BOTTOM_RIGHT_Y);
+		
+		assertEquals(1,quad.getAll().size());
+		assertEquals(point,quad.find(point));
+		assertEquals(0,quad.findNear(TOP_LEFT_X, BOTTOM_RIGHT_Y, SMALL_RADIUS).size());
+	}
+	
+	/**
+	 * Check batch inserts and deletes against the same operations point by point
+	 */
+	@Test
+	public void testBatchOperations() {
+		List<Location> grid = new ArrayList<>();
+		for(int x=CENTER_X-3; x <= CENTER_X+3; x++)
+			for(int y=CENTER_Y-3; y <= CENTER_Y+3; y++)
+				grid.add(new Location("",x,y));
+
+		quad.insertAll(grid);
+		PointQuadtree<Location> single = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		for(Location location: grid)
+			single.insert(location);
+		assertEquals(29,quad.findNear(CENTER_X, CENTER_Y, 3).size());
+		assertEquals(single.getNodeCount(),quad.getNodeCount());
+
+		quad.deleteAll(grid);
+		assertEquals(0,quad.getAll().size());
+		assertEquals(1,quad.getNodeCount());
+	}
+
+	private static final int HOT_SPOT = 1000;
+
+	/**
+	 * Many points with the same coordinates are kept in a single overflowing leaf
+	 */
+	@Test
+	public void testCoincidentPoints() {
+		for(int i=0; i < HOT_SPOT; i++)
+			quad.insert(new Location("rank "+i, CENTER_Y, CENTER_X));
+
+		assertEquals(HOT_SPOT,quad.findNear(CENTER_X, CENTER_Y, SMALL_RADIUS).size());
+		assertEquals(HOT_SPOT,quad.getAll().size());
+	}
+
+	/**
+	 * Many points with nearly the same coordinates don't split leaves beyond the maximum depth
+	 */
+	@Test
+	public void testNearlyCoincidentPoints() {
+		quad = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y,2,8);
+
+		for(int i=0; i < HOT_SPOT; i++)
+			quad.insert(new Location("", CENTER_Y + i*1E-12, CENTER_X - i*1E-12));
+
+		assertEquals(HOT_SPOT,quad.findNear(CENTER_X, CENTER_Y, SMALL_RADIUS).size());
+
+		checkAroundCenter(3,29+HOT_SPOT-1);
+	}
+
+	/**
+	 * Check queries, moves and deletes on a quadtree whose leaves keep coordinates in arrays
+	 */
+	@Test
+	public void testArrayLeaves() {
+		quad = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y,CAPACITY,Trie.DEFAULT_MAX_DEPTH,Trie.LeafKind.ARRAY);
+		checkAroundCenter(3,29);
+
+		assertEquals(10,quad.findInRect(CENTER_X-2, CENTER_Y-3, CENTER_X-1, CENTER_Y+1).size());
+		assertEquals(new Location("",CENTER_Y,CENTER_X),quad.findNearest(CENTER_X, CENTER_Y, 5).get(0));
+
+		Location moving = new Location("moving", CENTER_Y, CENTER_X);
+		quad.insert(moving);
+		moving.latitude  = TOP_LEFT_Y - SMALL_RADIUS;
+		quad.move(moving, CENTER_X, CENTER_Y);
+		assertEquals(1,quad.findNear(moving.getX(), moving.getY(), 0.5).size());
+		moving.longitude = TOP_LEFT_X + SMALL_RADIUS/2.0;
+		quad.move(moving, CENTER_X, TOP_LEFT_Y - SMALL_RADIUS);
+		assertEquals(moving,quad.find(moving));
+
+		for(Location location: quad.getAll())
+			quad.delete(location);
+
+		assertEquals(0,quad.getAll().size());
+		assertEquals(1,quad.getNodeCount());
+	}
+
+	/**
+	 * Check that both kinds of leaves find the same Portuguese locations
+	 */
+	@Test
+	public void testArrayLeavesPortugueseLocations() {
+		PointQuadtree<Location> sets = loadLocations();
+		PointQuadtree<Location> arrays = loadLocations(Trie.LeafKind.ARRAY);
+
+		assertEquals(sets.getAll(),arrays.getAll());
+		for(String name: new String[] { "Porto", "Lisboa", "Coimbra", "Faro"}) {
+			Location base = locations.get(name);
+			for(double radius = 0.05; radius < 2; radius *= 2)
+				assertEquals(sets.findNear(base.getX(), base.getY(), radius),
+						arrays.findNear(base.getX(), base.getY(), radius));
+		}
+	}
+
 	/**
 	 * Find near points on a QuadTree having a single leaf
 	 */
@@ -221,8 +591,141 @@ public class PointQuadtreeTest {
 		assertEquals(expected,quad.findNear(CENTER_X, CENTER_Y, radius).size());
 	}
 	
+	private static final int GRID_SIDE = 100;
+
+	/**
+	 * Count the points visited by a small radius search on a dense grid.
+	 * Quadrants not intersecting the circle are pruned, hence only
+	 * a small fraction of the points is visited.
+	 */
+	@Test
+	public void testFindNearVisitsFewPoints() {
+		int[] visited = new int[1];
+		double step = (double) (BOTTOM_RIGHT_X - TOP_LEFT_X) / GRID_SIDE;
+
+		for(int i=0; i < GRID_SIDE; i++)
+			for(int j=0; j < GRID_SIDE; j++)
+				quad.insert(new Location("",TOP_LEFT_Y - j*step - step/2, TOP_LEFT_X + i*step + step/2) {
+					@Override
+					public double getX() {
+						visited[0]++;
+						return super.getX();
+					}
+				});
+
+		visited[0] = 0;
+		assertEquals(21,quad.findNear(CENTER_X+step/2, CENTER_Y+step/2, 2.5*step).size());
+		int near = visited[0];
+
+		assertTrue("visited "+near+" points",near < GRID_SIDE*GRID_SIDE/100);
+	}
+
+	/**
+	 * Find the nearest points to the center of a grid
+	 */
+	@Test
+	public void testFindNearestInGrid() {
+		checkAroundCenter(3,29);
+
+		List<Location> nearest = quad.findNearest(CENTER_X, CENTER_Y, 5);
+		assertEquals(5,nearest.size());
+		assertEquals(new Location("",CENTER_Y,CENTER_X),nearest.get(0));
+		for(Location location: nearest.subList(1, 5))
+			assertEquals(1,Trie.getDistance(CENTER_X, CENTER_Y, location.getX(), location.getY()),0);
+
+		assertEquals(49,quad.findNearest(CENTER_X, CENTER_Y, 100).size());
+	}
+
+	/**
+	 * Check distances of nearest Portuguese locations against a sorted list of all distances
+	 */
+	@Test
+	public void testFindNearestPortugueseLocations() {
+		quad = loadLocations();
+		int k = 20;
+
+		for(String name: new String[] { "Porto", "Lisboa", "Faro", "Sagres"}) {
+			Location base = locations.get(name);
+			List<Double> distances = new ArrayList<>();
+
+			for(Location location: quad.getAll())
+				distances.add(Trie.getDistance(base.getX(), base.getY(), location.getX(), location.getY()));
+			Collections.sort(distances);
+
+			List<Location> nearest = quad.findNearest(base.getX(), base.getY(), k);
+			assertEquals(k,nearest.size());
+			for(int i=0; i < k; i++)
+				assertEquals(distances.get(i),Trie.getDistance(base.getX(), base.getY(),
+						nearest.get(i).getX(), nearest.get(i).getY()),0);
+		}
+	}
+
+	/**
+	 * Find points inside a rectangle of a grid, boundaries included
+	 */
+	@Test
+	public void testFindInRect() {
+		checkAroundCenter(3,29);
+
+		assertEquals(10,quad.findInRect(CENTER_X-2, CENTER_Y-3, CENTER_X-1, CENTER_Y+1).size());
+		assertEquals(49,quad.findInRect(TOP_LEFT_X, BOTTOM_RIGHT_Y, BOTTOM_RIGHT_X, TOP_LEFT_Y).size());
+		assertEquals(0,quad.findInRect(TOP_LEFT_X, BOTTOM_RIGHT_Y, TOP_LEFT_X+1, BOTTOM_RIGHT_Y+1).size());
+
+		int[] count = new int[1];
+		quad.forEachInRect(CENTER_X-2, CENTER_Y-3, CENTER_X-1, CENTER_Y+1, location -> count[0]++);
+		assertEquals(10,count[0]);
+	}
+
+	/**
+	 * Visit points with consumers and with predicates stopping the traversal
+	 */
+	@Test
+	public void testVisitors() {
+		checkAroundCenter(3,29);
+		int[] count = new int[1];
+
+		quad.forEachNear(CENTER_X, CENTER_Y, 3, location -> count[0]++);
+		assertEquals(29,count[0]);
+
+		count[0] = 0;
+		quad.forEach(location -> count[0]++);
+		assertEquals(49,count[0]);
+
+		count[0] = 0;
+		assertEquals(false,quad.visitNear(CENTER_X, CENTER_Y, 3, location -> ++count[0] < 5));
+		assertEquals(5,count[0]);
+
+		count[0] = 0;
+		assertEquals(false,quad.visitAll(location -> ++count[0] < 10));
+		assertEquals(10,count[0]);
+
+		assertEquals(true,quad.visitInRect(CENTER_X, CENTER_Y, CENTER_X, CENTER_Y, location -> true));
+	}
+
 	/**
-	 * Check all points in Portuguese locations 
+	 * Check Portuguese locations in rectangles around main cities against a filter of all locations
+	 */
+	@Test
+	public void testFindInRectPortugueseLocations() {
+		quad = loadLocations();
+
+		for(String name: new String[] { "Porto", "Lisboa", "Coimbra", "Faro"}) {
+			Location base = locations.get(name);
+			for(double side = 0.1; side < 2; side *= 2) {
+				Set<Location> inside = new HashSet<>();
+
+				for(Location location: quad.getAll())
+					if(Math.abs(location.getX() - base.getX()) <= side && Math.abs(location.getY() - base.getY()) <= side)
+						inside.add(location);
+
+				assertEquals(inside,quad.findInRect(base.getX()-side, base.getY()-side,
+						base.getX()+side, base.getY()+side));
+			}
+		}
+	}
+
+	/**
+	 * Check all points in Portuguese locations
 	 */
 	@Test
 	public void testFindAllPotugueseLocations() {
@@ -374,6 +877,15 @@ public class PointQuadtreeTest {
 	 * @return
 	 */
 	private PointQuadtree<Location> loadLocations() {
+		return loadLocations(Trie.LeafKind.SET);
+	}
+
+	/**
+	 * Load location in in a map to a QuadTree with the given kind of leaves
+	 * @param leafKind
+	 * @return
+	 */
+	private PointQuadtree<Location> loadLocations(Trie.LeafKind leafKind) {
 		
 		Location first = locations.get(locations.keySet().iterator().next());
 		double westernLongitude = first.longitude;
@@ -396,7 +908,7 @@ public class PointQuadtreeTest {
 		
 		PointQuadtree<Location> quadTree = new PointQuadtree<Location>(
 				westernLongitude, northernLatitude, 
-			easternLongitude, southernLatitude);
+			easternLongitude, southernLatitude, CAPACITY, Trie.DEFAULT_MAX_DEPTH, leafKind);
 	
 		for(String name: locations.keySet()) {
 			Location location = locations.get(name);
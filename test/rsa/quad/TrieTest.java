@@ -41,5 +41,18 @@ public class TrieTest {
 		Trie.setCapacity(CAPACITY);
 		assertEquals(CAPACITY, Trie.getCapacity());
 	}
+	
+	/**
+	 * Test that creating tries doesn't reset the default capacity
+	 */
+	@Test
+	public void testCapacityKeptOnCreation() {
+		
+		Trie.setCapacity(2*CAPACITY);
+		new PointQuadtree<Location>(0, 1, 1, 0);
+		assertEquals(2*CAPACITY, Trie.getCapacity());
+		
+		Trie.setCapacity(CAPACITY);
+	}
 
 }
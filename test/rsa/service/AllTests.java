@@ -8,6 +8,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({ 
 	ManagerTest.class,
 	MatcherTest.class, 
+	MatchStoreTest.class,
+	MatchingEngineTest.class,
 	RideTest.class, 
 	RideMatchTest.class,
 	UsersTest.class, 
@@ -0,0 +1,106 @@
+package rsa.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rsa.TestData;
+import rsa.service.Matcher.RideMatch;
+import rsa.shared.Location;
+
+/**
+ * Test a MatchStore. Check if proposed matches are evicted and dropped by ride.
+ *
+ */
+public class MatchStoreTest extends TestData {
+	private static final long TIME_TO_LIVE = 1000;
+	private static final int MAX_SIZE = 3;
+
+	Matcher matcher;
+	MatchStore store;
+	long now;
+	Ride driverRide;
+	Ride passengerRide;
+	Ride otherRide;
+
+	@Before
+	public void setUp() throws Exception {
+		matcher = new Matcher();
+		store = new MatchStore(TIME_TO_LIVE, MAX_SIZE, () -> now);
+		now = 0;
+
+		Location from = new Location(X1,Y1);
+		Location to = new Location(X2,Y2);
+		driverRide = new Ride(new User(NICKS[0],NAMES[0],PASSWORDS[0]),from,to,PLATES[0],COSTS[0]);
+		passengerRide = new Ride(new User(NICKS[1],NAMES[1],PASSWORDS[1]),from,to,null,COSTS[0]);
+		otherRide = new Ride(new User(NICKS[2],NAMES[2],PASSWORDS[2]),from,to,null,COSTS[0]);
+	}
+
+	/**
+	 * Proposals older than the time to live are not returned, and are evicted by later proposals
+	 */
+	@Test
+	public void testTimeToLive() {
+		RideMatch old = matcher.new RideMatch(driverRide,passengerRide);
+		store.put(old);
+		now = TIME_TO_LIVE;
+		assertSame(old,store.get(old.getId()));
+
+		now = TIME_TO_LIVE + 1;
+		assertNull(store.get(old.getId()));
+		store.put(matcher.new RideMatch(driverRide,otherRide));
+		assertEquals(1,store.size());
+	}
+
+	/**
+	 * The oldest proposals are evicted beyond the maximum size
+	 */
+	@Test
+	public void testMaxSize() {
+		RideMatch first = matcher.new RideMatch(driverRide,passengerRide);
+		store.put(first);
+		for(int i=0; i < MAX_SIZE; i++)
+			store.put(matcher.new RideMatch(driverRide,passengerRide));
+
+		assertEquals(MAX_SIZE,store.size());
+		assertNull(store.get(first.getId()));
+	}
+
+	/**
+	 * A query drops only the proposals queried by the ride, not those queried by others
+	 */
+	@Test
+	public void testRemoveQueriedBy() {
+		RideMatch driverMatch = matcher.new RideMatch(driverRide,passengerRide);
+		RideMatch passengerMatch = matcher.new RideMatch(passengerRide,driverRide);
+		store.put(driverMatch);
+		store.put(passengerMatch);
+
+		store.removeQueriedBy(passengerRide.getId());
+		assertSame(driverMatch,store.get(driverMatch.getId()));
+		assertNull(store.get(passengerMatch.getId()));
+	}
+
+	/**
+	 * A matched ride keeps its proposals with the partner only; a concluded ride keeps none
+	 */
+	@Test
+	public void testRetainPartnerAndRemoveRide() {
+		RideMatch driverMatch = matcher.new RideMatch(driverRide,passengerRide);
+		RideMatch passengerMatch = matcher.new RideMatch(passengerRide,driverRide);
+		RideMatch otherMatch = matcher.new RideMatch(otherRide,driverRide);
+		store.put(driverMatch);
+		store.put(passengerMatch);
+		store.put(otherMatch);
+
+		store.retainPartner(driverRide.getId(), passengerRide.getId());
+		assertEquals(2,store.size());
+		assertNull(store.get(otherMatch.getId()));
+
+		store.removeRide(passengerRide.getId());
+		assertEquals(0,store.size());
+	}
+}
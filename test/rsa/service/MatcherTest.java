@@ -1,7 +1,10 @@
 package rsa.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
 
+import java.util.Iterator;
 import java.util.SortedSet;
 
 import org.junit.Before;
@@ -9,6 +12,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import rsa.TestData;
+import rsa.quad.PointOutOfBoundException;
+import rsa.quad.SpatialIndex;
 import rsa.shared.Car;
 import rsa.shared.Location;
 import rsa.shared.PreferredMatch;
@@ -189,6 +194,181 @@ public class MatcherTest extends TestData {
 
 	}
 
+	/**
+	 * Rides outside the matching boundaries are matched too, as the quadtree grows to hold them
+	 */
+	@Test
+	public void testMatchOutsideBoundaries() {
+		Location far = new Location(BOTTOM_RIGHT_X + 10*RADIUS, TOP_LEFT_Y + 10*RADIUS);
+		User driver = getUser(0);
+		User passgr = getUser(1);
+		
+		long driverRideId = matcher.addRide(driver, far, to, PLATES[0],COSTS[0]);
+		long passgrRideId = matcher.addRide(passgr, far, to, null,COSTS[0]);
+		
+		assertEquals(1,matcher.updateRide(driverRideId, far).size());
+		assertEquals(1,matcher.updateRide(passgrRideId, far).size());
+	}
+	
+	/**
+	 * A location the index can't hold is rejected, and the ride stays where it was
+	 */
+	@Test
+	public void testUpdateOutsideBoundaries() {
+		Location far = new Location(BOTTOM_RIGHT_X + 10*RADIUS, TOP_LEFT_Y + 10*RADIUS);
+		Matcher.setIndexKind(SpatialIndex.Kind.GRID);
+		try {
+			matcher = new Matcher();
+		} finally {
+			Matcher.setIndexKind(SpatialIndex.Kind.QUADTREE);
+		}
+		long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0],COSTS[0]);
+		long passgrRideId = matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		
+		try {
+			matcher.updateRide(driverRideId, far);
+			fail("Expected a PointOutOfBoundException");
+		} catch (PointOutOfBoundException e) {
+			// the ride keeps its previous location
+		}
+		
+		assertEquals(1,matcher.updateRide(passgrRideId, from).size());
+		assertEquals(1,matcher.updateRide(driverRideId, from).size());
+	}
+	
+	/**
+	 * Simple match, with rides indexed by a MortonIndex instead of a quadtree
+	 */
+	@Test
+	public void testSimpleMatchMortonIndex() {
+		Matcher.setIndexKind(SpatialIndex.Kind.MORTON);
+		try {
+			matcher = new Matcher();
+			testSimpleMatch();
+		} finally {
+			Matcher.setIndexKind(SpatialIndex.Kind.QUADTREE);
+		}
+	}
+
+	/**
+	 * Simple match, with rides indexed by a GridIndex instead of a quadtree
+	 */
+	@Test
+	public void testSimpleMatchGridIndex() {
+		Matcher.setIndexKind(SpatialIndex.Kind.GRID);
+		try {
+			matcher = new Matcher();
+			testSimpleMatch();
+		} finally {
+			Matcher.setIndexKind(SpatialIndex.Kind.QUADTREE);
+		}
+	}
+
+	/**
+	 * Matches are kept across updates while the rides stay in range, and dropped when they leave it
+	 */
+	@Test
+	public void testMatchKeptAcrossUpdates() {
+		long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0],COSTS[0]);
+		matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		Location near = new Location(X1+RADIUS/2,Y1);
+		
+		long matchId = matcher.updateRide(driverRideId, from).first().getMatchId();
+		assertEquals(matchId,matcher.updateRide(driverRideId, near).first().getMatchId());
+		
+		assertEquals(0,matcher.updateRide(driverRideId, other).size());
+		assertNotEquals(matchId,matcher.updateRide(driverRideId, from).first().getMatchId());
+	}
+	
+	/**
+	 * Rides crowded near one end of the ride only are not matched, whichever end is busier
+	 */
+	@Test
+	public void testMatchCrowdedEnds() {
+		for(int i=0; i < 50; i++) {
+			matcher.addRide(getUser(2), new Location(X1+i*RADIUS/100.0,Y1), other, PLATES[2],COSTS[0]);
+			matcher.addRide(getUser(2), other, to, PLATES[2],COSTS[0]);
+		}
+		long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0],COSTS[0]);
+		long passgrRideId = matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		
+		assertEquals(1,matcher.updateRide(passgrRideId, from).size());
+		assertEquals(1,matcher.updateRide(driverRideId, from).size());
+		
+		User closer = getUser(1);
+		closer.setPreferredMatch(PreferredMatch.CLOSER);
+		long otherRideId = matcher.addRide(closer, from, other, null,COSTS[0]);
+		assertEquals(50,matcher.updateRide(otherRideId, from).size());
+	}
+	
+	/**
+	 * The best k matches are the first k of all the matches
+	 */
+	@Test
+	public void testTopMatches() {
+		long passgrRideId = matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		UserStars[] stars = { UserStars.TWO_STARS, UserStars.FIVE_STARS, UserStars.THREE_STARS, UserStars.ONE_STAR, UserStars.FOUR_STARS };
+		for(UserStars star: stars) {
+			User driver = getUser(0,0);
+			driver.addStars(star, RideRole.DRIVER);
+			matcher.addRide(driver, from, to, PLATES[0],COSTS[0]);
+		}
+		
+		SortedSet<RideMatchInfo> all = matcher.updateRide(passgrRideId, from);
+		SortedSet<RideMatchInfo> best = matcher.updateRide(passgrRideId, from, 3);
+		
+		assertEquals(stars.length,all.size());
+		assertEquals(3,best.size());
+		Iterator<RideMatchInfo> expected = all.iterator();
+		for(RideMatchInfo match: best)
+			assertEquals(expected.next().getMatchId(),match.getMatchId());
+	}
+	
+	/**
+	 * The number of matches must be positive
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testTopMatchesNone() {
+		long passgrRideId = matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		matcher.updateRide(passgrRideId, from, 0);
+	}
+	
+	/**
+	 * Two drivers ranked alike are both proposed, in the same order on every update
+	 */
+	@Test
+	public void testTiedMatchesKept() {
+		long passgrRideId = matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		matcher.addRide(getUser(0,0), from, to, PLATES[0],COSTS[0]);
+		matcher.addRide(getUser(2,2), from, to, PLATES[2],COSTS[0]);
+		
+		SortedSet<RideMatchInfo> first = matcher.updateRide(passgrRideId, from);
+		SortedSet<RideMatchInfo> second = matcher.updateRide(passgrRideId, from);
+		
+		assertEquals(2,first.size());
+		assertEquals(first.first().getMatchId(),second.first().getMatchId());
+		assertEquals(first.last().getMatchId(),second.last().getMatchId());
+	}
+	
+	/**
+	 * The best k of matches ranked alike are the first k of all of them, by match ID
+	 */
+	@Test
+	public void testTopMatchesTied() {
+		long passgrRideId = matcher.addRide(getUser(1), from, to, null,COSTS[0]);
+		for(int i=0; i < 5; i++)
+			matcher.addRide(getUser(0,0), from, to, PLATES[0],COSTS[0]);
+		
+		SortedSet<RideMatchInfo> all = matcher.updateRide(passgrRideId, from);
+		SortedSet<RideMatchInfo> best = matcher.updateRide(passgrRideId, from, 3);
+		
+		assertEquals(5,all.size());
+		assertEquals(3,best.size());
+		Iterator<RideMatchInfo> expected = all.iterator();
+		for(RideMatchInfo match: best)
+			assertEquals(expected.next().getMatchId(),match.getMatchId());
+	}
+	
 	/**
 	 * Double match: two drivers with same path (origin and destination)
 	 * First has more starts and is used the default preference (BETTER)
@@ -0,0 +1,135 @@
+package rsa.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rsa.TestData;
+import rsa.shared.Location;
+
+/**
+ * Test a MatchingEngine. Check if the matches it keeps are those found by brute force, as rides move.
+ *
+ */
+public class MatchingEngineTest extends TestData {
+	private static final double SIDE = 100;
+	private static final int RIDES = 200;
+	private static final int MOVES = 2000;
+
+	Matcher matcher;
+	MatchingEngine engine;
+	List<Ride> rides;
+	Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		matcher = new Matcher();
+		rides = new ArrayList<>();
+		engine = new MatchingEngine((ride, reach) -> rides, (left, right) -> matcher.new RideMatch(left, right));
+		random = new Random(0);
+	}
+
+	/**
+	 * After every move, small or large, each ride's matches are the rides matchable with it
+	 */
+	@Test
+	public void testAgreesWithBruteForce() {
+		Location[] destinations = { new Location(X2,Y2), new Location(X2+RADIUS/2,Y2), new Location(X3,Y3) };
+		for(int i=0; i < RIDES; i++)
+			add(randomLocation(), destinations[random.nextInt(destinations.length)], i % 2 == 0 ? PLATES[0] : null);
+
+		for(int i=0; i < MOVES; i++) {
+			Ride ride = rides.get(random.nextInt(RIDES));
+			double step = random.nextInt(10) == 0 ? 3*RADIUS : RADIUS/10;
+			ride.setCurrent(new Location(
+					Math.max(0, Math.min(SIDE, ride.getCurrent().getX() + step*random.nextGaussian())),
+					Math.max(0, Math.min(SIDE, ride.getCurrent().getY() + step*random.nextGaussian()))));
+			engine.move(ride);
+			if(i % 100 == 0)
+				for(Ride other: rides)
+					assertEquals(bruteForce(other),partners(other));
+		}
+		assertTrue(engine.getProbeCount() < RIDES + MOVES/2);
+	}
+
+	/**
+	 * Small moves don't probe the indexes, larger ones do
+	 */
+	@Test
+	public void testProbes() {
+		Ride driver = add(new Location(X1,Y1), new Location(X2,Y2), PLATES[0]);
+		add(new Location(X1,Y1), new Location(X2,Y2), null);
+		int probes = engine.getProbeCount();
+
+		driver.setCurrent(new Location(X1+RADIUS*MatchingEngine.SKIN/4,Y1));
+		engine.move(driver);
+		assertEquals(probes,engine.getProbeCount());
+
+		driver.setCurrent(new Location(X1+RADIUS*MatchingEngine.SKIN,Y1));
+		engine.move(driver);
+		assertEquals(probes+1,engine.getProbeCount());
+	}
+
+	/**
+	 * A partner moving into the radius is matched on both sides, without the other ride moving
+	 */
+	@Test
+	public void testPartnerMoves() {
+		Ride driver = add(new Location(X1,Y1), new Location(X2,Y2), PLATES[0]);
+		Ride passenger = add(new Location(X1+RADIUS*1.2,Y1), new Location(X2,Y2), null);
+		assertEquals(0,engine.matchesOf(driver.getId()).size());
+
+		passenger.setCurrent(new Location(X1+RADIUS/2,Y1));
+		engine.move(passenger);
+		assertEquals(1,engine.matchesOf(driver.getId()).size());
+		assertEquals(1,engine.matchesOf(passenger.getId()).size());
+	}
+
+	/**
+	 * A removed ride leaves no match in its partners
+	 */
+	@Test
+	public void testRemove() {
+		Ride driver = add(new Location(X1,Y1), new Location(X2,Y2), PLATES[0]);
+		Ride passenger = add(new Location(X1,Y1), new Location(X2,Y2), null);
+		assertEquals(1,engine.matchesOf(passenger.getId()).size());
+
+		engine.remove(driver.getId());
+		assertEquals(0,engine.matchesOf(passenger.getId()).size());
+		assertEquals(0,engine.matchesOf(driver.getId()).size());
+	}
+
+	private Ride add(Location from, Location to, String plate) {
+		Ride ride = new Ride(null, from, to, plate, COSTS[0]);
+		rides.add(ride);
+		engine.add(ride);
+		return ride;
+	}
+
+	private Set<Long> partners(Ride ride) {
+		Set<Long> ids = new HashSet<>();
+		for(Matcher.RideMatch match: engine.matchesOf(ride.getId()))
+			ids.add(match.getRide(ride.getRideRole().other()).getId());
+		return ids;
+	}
+
+	private Set<Long> bruteForce(Ride ride) {
+		Set<Long> ids = new HashSet<>();
+		for(Ride other: rides)
+			if(other != ride && MatchingEngine.matchable(ride, other))
+				ids.add(other.getId());
+		return ids;
+	}
+
+	private Location randomLocation() {
+		return new Location(random.nextDouble()*SIDE, random.nextDouble()*SIDE);
+	}
+}